@@ -0,0 +1,4 @@
+#!/bin/sh
+
+# Benchmarks the built-in masker with JMH. Arguments are passed to JMH, e.g. "-p workload=MIXED".
+java -jar benchmarks/target/benchmarks.jar $@
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures masking throughput in-process, without the pipes and process startup that
+ * {@code run.sh} includes. One operation is one input byte, so throughput is reported in bytes/s
+ * and average time in ns/byte.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@OperationsPerInvocation(MaskingBenchmark.CORPUS_SIZE)
+public class MaskingBenchmark {
+
+  static final int CORPUS_SIZE = 1 << 20;
+
+  @Param({ "DIGIT_FREE", "EXCEPTIONS", "LONG_DIGIT_RUNS", "SEPARATOR_HEAVY", "MIXED" })
+  public Workload workload;
+
+  /** Publishes match events to a ring drained by a background thread. */
+  @Param({ "false", "true" })
+  public boolean matchEvents;
+
+  private byte[] corpus;
+  private CountingOutputStream sink;
+  private LuhnMasker masker;
+  private MatchEvents matches;
+
+  @Setup public void setUp() {
+    corpus = workload.corpus(CORPUS_SIZE);
+    sink = new CountingOutputStream();
+    masker = new LuhnMasker(sink);
+    if (matchEvents) {
+      matches = new MatchEvents(4096, new byte[] { 1 });
+      matches.start(new MatchEvents.Listener() {
+        public void match(long offset, int digits, String prefixHash) {}
+      });
+      masker.publishMatchesTo(matches);
+    }
+  }
+
+  @TearDown public void tearDown() throws InterruptedException {
+    if (matches != null) matches.close();
+  }
+
+  @Benchmark @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+  public long bytesPerSecond() throws IOException {
+    return mask();
+  }
+
+  @Benchmark @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long nanosPerByte() throws IOException {
+    return mask();
+  }
+
+  private long mask() throws IOException {
+    masker.write(corpus, 0, corpus.length);
+    masker.finish();
+    return sink.count;
+  }
+
+  /** Discards output, keeping a count so the work can't be optimized away. */
+  static class CountingOutputStream extends OutputStream {
+    long count;
+
+    @Override public void write(int b) {
+      count++;
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
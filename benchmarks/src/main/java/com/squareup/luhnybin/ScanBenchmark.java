@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the digit scanners on a digit-free corpus, against {@code System.arraycopy} of the
+ * same bytes as the floor. One operation is one byte. {@link MaskingBenchmark} with the
+ * {@code DIGIT_FREE} workload measures the whole masker, which uses the best scanner available.
+ *
+ * <pre>
+ *   ./bench.sh ScanBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@OperationsPerInvocation(MaskingBenchmark.CORPUS_SIZE)
+public class ScanBenchmark {
+
+  @Param({ "scalar", "swar", "vector" })
+  public String scanner;
+
+  private DigitScanner digitScanner;
+  private byte[] corpus;
+  private byte[] copy;
+  private ByteBuffer heap;
+  private ByteBuffer direct;
+
+  @Setup public void setUp() {
+    if (scanner.equals("scalar")) {
+      digitScanner = new DigitScanner.Scalar();
+    } else if (scanner.equals("swar")) {
+      digitScanner = new DigitScanner.Swar();
+    } else {
+      digitScanner = DigitScanner.INSTANCE;
+    }
+    if (!digitScanner.name().equals(scanner)) {
+      throw new IllegalStateException(scanner + " isn't available; got " + digitScanner.name());
+    }
+
+    corpus = Workload.DIGIT_FREE.corpus(MaskingBenchmark.CORPUS_SIZE);
+    copy = new byte[corpus.length];
+    heap = ByteBuffer.wrap(corpus).order(ByteOrder.LITTLE_ENDIAN);
+    direct = ByteBuffer.allocateDirect(corpus.length);
+    direct.put(corpus);
+  }
+
+  @Benchmark public int scanArray() {
+    return digitScanner.nextDigit(heap, 0, corpus.length);
+  }
+
+  @Benchmark public int scanMapped() {
+    return digitScanner.nextDigit(direct, 0, corpus.length);
+  }
+
+  @Benchmark public byte[] arraycopy() {
+    System.arraycopy(corpus, 0, copy, 0, corpus.length);
+    return copy;
+  }
+}
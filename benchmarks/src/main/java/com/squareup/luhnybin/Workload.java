@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Log corpora for benchmarks. Lines come from the {@link LuhnyBinTests} generators.
+ */
+public enum Workload {
+
+  /** Log lines without a single digit. Most production traffic looks like this. */
+  DIGIT_FREE {
+    @Override void addLines(List<String> lines) {
+      lines.add("INFO [main] com.squareup.payments.Ledger - Settled batch for merchant acme.");
+      lines.add("DEBUG [pool-thread] com.squareup.http.Client - GET /v/payments took a while");
+      lines.add("WARN [scheduler] com.squareup.jobs.Retry - Retrying job after timeout, giving up"
+          + " soon if the upstream service keeps refusing connections.");
+      lines.add("ERROR [request] com.squareup.api.Handler - Unexpected response from gateway.");
+      lines.add("");
+    }
+  },
+
+  /** Exception messages and stack traces, some containing card #s. */
+  EXCEPTIONS {
+    @Override void addLines(List<String> lines) {
+      lines.add("java.lang.FakeException: " + LuhnyBinTests.formattedNumber(' ')
+          + " is a card #.");
+      lines.add("java.lang.IllegalStateException: Declined " + LuhnyBinTests.randomNumber(16)
+          + " for order 80412.");
+      lines.add("java.lang.IllegalArgumentException: Bad expiry 12/19 for "
+          + LuhnyBinTests.randomNumber(15));
+      lines.add("com.squareup.CardException: " + LuhnyBinTests.nestedNumber() + " rejected");
+      lines.add("\tat com.squareup.payments.Ledger.settle(Ledger.java:412)");
+      lines.add("\tat com.squareup.payments.Batch.run(Batch.java:87)");
+      lines.add("\tat java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1110)");
+      lines.add("\t... 14 more");
+    }
+  },
+
+  /** Long runs of digits, with and without overlapping matches. */
+  LONG_DIGIT_RUNS {
+    @Override void addLines(List<String> lines) {
+      lines.add(LuhnyBinTests.nonMatchingSequence(1000));
+      lines.add(LuhnyBinTests.overlappingSequence(1000));
+      lines.add(LuhnyBinTests.repeatingSequence('0', 1000));
+      lines.add("9875610591081018250321");
+    }
+  },
+
+  /** Text dominated by spaces, hyphens and formatted numbers. */
+  SEPARATOR_HEAVY {
+    @Override void addLines(List<String> lines) {
+      lines.add(LuhnyBinTests.formattedNumber(' '));
+      lines.add(LuhnyBinTests.formattedNumber('-'));
+      lines.add("4111 1111 1111 111 doesn't have enough digits.");
+      lines.add("1 - - - - - - - - - - - - - - - - - - - - - - - - 2 - - - - - - - - 3 - - - - 4");
+      lines.add("---------------------------------------- " + LuhnyBinTests.formattedNumber('-'));
+      lines.add("12 34 56 78 90 12 34 56 78 90 12 34 56 78 90 12 34 56 78 90");
+    }
+  },
+
+  /** Mostly digit-free lines with a sprinkling of everything else. */
+  MIXED {
+    @Override void addLines(List<String> lines) {
+      for (int i = 0; i < 8; i++) DIGIT_FREE.addLines(lines);
+      EXCEPTIONS.addLines(lines);
+      LONG_DIGIT_RUNS.addLines(lines);
+      SEPARATOR_HEAVY.addLines(lines);
+    }
+  };
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  abstract void addLines(List<String> lines);
+
+  /** Builds a corpus of exactly size bytes from randomly chosen lines. */
+  byte[] corpus(int size) {
+    List<String> lines = new ArrayList<String>();
+    addLines(lines);
+
+    Random random = new Random(0xDEADBEEF);
+    byte[] corpus = new byte[size];
+    int position = 0;
+    while (position < size) {
+      byte[] line = (lines.get(random.nextInt(lines.size())) + "\n").getBytes(ASCII);
+      int length = Math.min(line.length, size - position);
+      System.arraycopy(line, 0, corpus, position, length);
+      position += length;
+    }
+    return corpus;
+  }
+}
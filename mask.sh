@@ -1,4 +1,20 @@
 #!/bin/sh
 
-# Call your program here instead of cat.
-cat
+# Masks card #s with the built-in Java masker. Run "mvn package" in tests/ first.
+# JAVA_OPTS="--add-modules jdk.incubator.vector" enables the Vector API digit scanner on JDK 17+.
+
+# --connect SOCKET forwards through a running --daemon. It needs no JVM, which is the point: a
+# short job then pays for a process start, not a JVM start. socat shuts down the socket's write
+# side when input ends and, with -t, keeps copying output until the daemon closes it.
+if [ "$1" = "--connect" ] && [ $# -eq 2 ]; then
+  if command -v socat > /dev/null 2>&1; then
+    exec socat -t 86400 - UNIX-CONNECT:"$2"
+  elif nc -h 2>&1 | grep -q -- '-N'; then
+    # OpenBSD nc: -N shuts down the socket's write side when input ends.
+    exec nc -N -U "$2"
+  fi
+  echo "--connect needs socat, or an nc that supports -U and -N." >&2
+  exit 1
+fi
+
+exec java $JAVA_OPTS -cp tests/target/luhnybin-1.0-SNAPSHOT.jar com.squareup.luhnybin.Mask "$@"
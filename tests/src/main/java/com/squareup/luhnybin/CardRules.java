@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * What counts as a card #: how many digits it has, which bytes may separate its digits, which
+ * issuer prefixes it may start with, and what its digits are masked with. Rules are compiled once
+ * into a byte class table and a bitset of allowed prefixes, so the masker never parses or
+ * searches them; each digit costs one constant-time check per allowed length.
+ *
+ * <p>Rules can be read from a properties file:
+ *
+ * <pre>
+ * lengths=12-19
+ * separators=\ -./
+ * mask=#
+ * prefixes=4,51-55,2221-2720
+ * </pre>
+ *
+ * Missing keys keep the defaults: 14 to 16 digits, space and hyphen separators, {@code X} and
+ * any prefix. A prefix range covers every prefix of the same length in between.
+ */
+final class CardRules {
+
+  /** The original challenge's rules. */
+  static final CardRules DEFAULT = new CardRules(14, 16, " -", 'X', "");
+
+  /** Shortest card # allowed, as in ISO/IEC 7812. */
+  static final int SHORTEST = 8;
+
+  /** Longest card # the masker can track. Its prefix sums are kept in a ring of 32. */
+  static final int LONGEST = 31;
+
+  /** Longest issuer prefix. Prefixes are expanded to this many digits or fewer. */
+  static final int LONGEST_PREFIX = 6;
+
+  static final byte OTHER = 0;
+  static final byte DIGIT = 1;
+  static final byte SEPARATOR = 2;
+
+  final int minLength;
+  final int maxLength;
+  final String separators;
+  final byte mask;
+
+  /** Comma-separated prefixes and prefix ranges, or "" for any prefix. */
+  final String prefixes;
+
+  /** Byte classes indexed by unsigned byte value. */
+  final byte[] classes = new byte[256];
+
+  /** Digits in a compiled prefix, or 0 if any prefix is allowed. */
+  final int prefixDepth;
+
+  /** Bit n is set if a # may start with n as prefixDepth digits, or null for any prefix. */
+  final BitSet allowedStarts;
+
+  CardRules(int minLength, int maxLength, String separators, char mask, String prefixes) {
+    if (minLength < SHORTEST || maxLength < minLength || maxLength > LONGEST) {
+      throw new IllegalArgumentException("Lengths must be between " + SHORTEST + " and "
+          + LONGEST + ": " + minLength + "-" + maxLength);
+    }
+    if (mask > 0x7f || isDigit(mask)) {
+      throw new IllegalArgumentException("The mask must be an ASCII non-digit: " + mask);
+    }
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+    this.separators = separators;
+    this.mask = (byte) mask;
+    this.prefixes = prefixes;
+
+    for (int c = '0'; c <= '9'; c++) classes[c] = DIGIT;
+    for (int i = 0; i < separators.length(); i++) {
+      char c = separators.charAt(i);
+      if (c > 0x7f || isDigit(c) || c == '\n' || c == '\r') {
+        throw new IllegalArgumentException(
+            "Separators must be ASCII and not digits or line breaks: " + c);
+      }
+      classes[c] = SEPARATOR;
+    }
+
+    List<String[]> ranges = parsePrefixes(prefixes);
+    int depth = 0;
+    for (String[] range : ranges) depth = Math.max(depth, range[0].length());
+    if (depth >= minLength) {
+      throw new IllegalArgumentException("Prefixes must be shorter than the shortest #.");
+    }
+    prefixDepth = depth;
+    allowedStarts = ranges.isEmpty() ? null : compile(ranges, depth);
+  }
+
+  /** Reads rules from a properties file. Throws IllegalArgumentException if they're invalid. */
+  static CardRules read(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+
+    int minLength = DEFAULT.minLength;
+    int maxLength = DEFAULT.maxLength;
+    String lengths = properties.getProperty("lengths");
+    if (lengths != null) {
+      String[] range = lengths.trim().split("-", -1);
+      try {
+        minLength = Integer.parseInt(range[0].trim());
+        maxLength = range.length == 1 ? minLength : Integer.parseInt(range[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Expected lengths=MIN-MAX: " + lengths);
+      }
+    }
+    String mask = properties.getProperty("mask", String.valueOf((char) DEFAULT.mask));
+    if (mask.length() != 1) throw new IllegalArgumentException("Expected one mask character.");
+    return new CardRules(minLength, maxLength,
+        properties.getProperty("separators", DEFAULT.separators), mask.charAt(0),
+        properties.getProperty("prefixes", DEFAULT.prefixes).replace(" ", ""));
+  }
+
+  /** Returns true if c can't be part of a card #, so it ends any run. */
+  boolean endsRun(byte c) {
+    return classes[c & 0xff] == OTHER;
+  }
+
+  boolean isSeparator(char c) {
+    return c <= 0x7f && classes[c] == SEPARATOR;
+  }
+
+  /** Returns true if a # may start with digits, which has at least prefixDepth digits. */
+  boolean allowsStart(CharSequence digits) {
+    if (allowedStarts == null) return true;
+    int start = 0;
+    for (int i = 0; i < prefixDepth; i++) start = start * 10 + (digits.charAt(i) - '0');
+    return allowedStarts.get(start);
+  }
+
+  /** Returns a prefixDepth-digit start that's allowed, for generating test #s. */
+  String someAllowedStart(Random random) {
+    if (allowedStarts == null) return "";
+    int count = allowedStarts.cardinality();
+    int n = random.nextInt(count);
+    int start = allowedStarts.nextSetBit(0);
+    for (int i = 0; i < n; i++) start = allowedStarts.nextSetBit(start + 1);
+    return pad(start, prefixDepth);
+  }
+
+  @Override public String toString() {
+    return "lengths " + minLength + "-" + maxLength + ", separators '" + separators
+        + "', mask '" + (char) mask + "'" + (prefixes.isEmpty() ? "" : ", prefixes " + prefixes);
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /** Parses "4,51-55" into {"4", "4"}, {"51", "55"}. */
+  private static List<String[]> parsePrefixes(String prefixes) {
+    if (prefixes.isEmpty()) return Collections.emptyList();
+    List<String[]> ranges = new ArrayList<String[]>();
+    for (String prefix : prefixes.split(",")) {
+      String[] range = prefix.split("-", -1);
+      String first = range[0];
+      String last = range.length == 1 ? first : range[1];
+      if (range.length > 2 || first.isEmpty() || first.length() != last.length()
+          || first.length() > LONGEST_PREFIX || !allDigits(first) || !allDigits(last)
+          || first.compareTo(last) > 0) {
+        throw new IllegalArgumentException("Bad prefix: " + prefix);
+      }
+      ranges.add(new String[] { first, last });
+    }
+    return ranges;
+  }
+
+  private static boolean allDigits(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (!isDigit(s.charAt(i))) return false;
+    }
+    return true;
+  }
+
+  /** Sets a bit for every depth-digit start that begins with a prefix in ranges. */
+  private static BitSet compile(List<String[]> ranges, int depth) {
+    BitSet allowed = new BitSet();
+    for (String[] range : ranges) {
+      int scale = pow10(depth - range[0].length());
+      int from = Integer.parseInt(range[0]) * scale;
+      int to = (Integer.parseInt(range[1]) + 1) * scale;
+      allowed.set(from, to);
+    }
+    return allowed;
+  }
+
+  static int pow10(int exponent) {
+    int result = 1;
+    for (int i = 0; i < exponent; i++) result *= 10;
+    return result;
+  }
+
+  private static String pad(int n, int digits) {
+    StringBuilder s = new StringBuilder(Integer.toString(n));
+    while (s.length() < digits) s.insert(0, '0');
+    return s.toString();
+  }
+}
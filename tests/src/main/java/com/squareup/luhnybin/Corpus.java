@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped test corpus written by {@link CorpusWriter}. The corpus is never copied onto
+ * the heap, so it can be much larger than the JVM.
+ *
+ * <p>File format, all numbers big-endian:
+ *
+ * <pre>
+ *   header       "LUHNYBIN", int version, int description count, long case count,
+ *                long data length, long input offset, long expected offset,
+ *                long index offset, long descriptions offset
+ *   input        data length bytes; every case ends with a line feed
+ *   expected     data length bytes; masking doesn't change lengths, so case i starts at the
+ *                same relative offset in both regions
+ *   index        per case: long start offset, int description number
+ *   descriptions per description: modified UTF-8 as written by DataOutput.writeUTF()
+ * </pre>
+ */
+final class Corpus implements Closeable, Suite {
+
+  static final Charset ASCII = Charset.forName("US-ASCII");
+  static final byte[] MAGIC = "LUHNYBIN".getBytes(ASCII);
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int INDEX_ENTRY_SIZE = 12;
+
+  private static final int DATA_SEGMENT_SIZE = 1 << 30;
+  private static final int INDEX_SEGMENT_SIZE = INDEX_ENTRY_SIZE << 26;
+
+  private final RandomAccessFile file;
+  private final Region input;
+  private final Region expected;
+  private final Region index;
+  private final String[] descriptions;
+
+  final long caseCount;
+  final long dataLength;
+
+  private Corpus(RandomAccessFile file, long caseCount, long dataLength, Region input,
+      Region expected, Region index, String[] descriptions) {
+    this.file = file;
+    this.caseCount = caseCount;
+    this.dataLength = dataLength;
+    this.input = input;
+    this.expected = expected;
+    this.index = index;
+    this.descriptions = descriptions;
+  }
+
+  static Corpus open(File path) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, "r");
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      file.readFully(magic);
+      if (!Arrays.equals(MAGIC, magic)) throw new IOException("Not a corpus: " + path);
+      int version = file.readInt();
+      if (version != VERSION) throw new IOException("Unsupported corpus version: " + version);
+
+      int descriptionCount = file.readInt();
+      long caseCount = file.readLong();
+      long dataLength = file.readLong();
+      long inputOffset = file.readLong();
+      long expectedOffset = file.readLong();
+      long indexOffset = file.readLong();
+      long descriptionsOffset = file.readLong();
+
+      file.seek(descriptionsOffset);
+      String[] descriptions = new String[descriptionCount];
+      for (int i = 0; i < descriptionCount; i++) descriptions[i] = file.readUTF();
+
+      FileChannel channel = file.getChannel();
+      return new Corpus(file, caseCount, dataLength,
+          new Region(channel, inputOffset, dataLength, DATA_SEGMENT_SIZE),
+          new Region(channel, expectedOffset, dataLength, DATA_SEGMENT_SIZE),
+          new Region(channel, indexOffset, caseCount * INDEX_ENTRY_SIZE, INDEX_SEGMENT_SIZE),
+          descriptions);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /** Writes the input region to out. */
+  public void writeTo(OutputStream out, byte[] chunk) throws IOException {
+    for (long position = 0; position < dataLength; ) {
+      int length = (int) Math.min(chunk.length, dataLength - position);
+      input.get(position, chunk, 0, length);
+      out.write(chunk, 0, length);
+      position += length;
+    }
+  }
+
+  /** Returns the number of the case containing the given data offset. */
+  long caseAt(long offset) {
+    long low = 0;
+    long high = caseCount - 1;
+    while (low < high) {
+      long middle = (low + high + 1) >>> 1;
+      if (caseStart(middle) <= offset) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  long caseStart(long caseNumber) {
+    return index.getLong(caseNumber * INDEX_ENTRY_SIZE);
+  }
+
+  long caseEnd(long caseNumber) {
+    return caseNumber + 1 < caseCount ? caseStart(caseNumber + 1) : dataLength;
+  }
+
+  public long caseCount() {
+    return caseCount;
+  }
+
+  public long length() {
+    return dataLength;
+  }
+
+  public long caseLength(long caseNumber) {
+    return caseEnd(caseNumber) - caseStart(caseNumber);
+  }
+
+  public void getExpected(long caseNumber, long offset, byte[] dst, int off, int len) {
+    expected.get(caseStart(caseNumber) + offset, dst, off, len);
+  }
+
+  public String description(long caseNumber) {
+    return descriptions[index.getInt(caseNumber * INDEX_ENTRY_SIZE + 8)];
+  }
+
+  /** Reads up to length bytes of input as a string, for error messages. */
+  String input(long offset, int length) {
+    return read(input, offset, length);
+  }
+
+  /** Reads up to length bytes of expected output as a string, for error messages. */
+  String expected(long offset, int length) {
+    return read(expected, offset, length);
+  }
+
+  private String read(Region region, long offset, int length) {
+    byte[] bytes = new byte[(int) Math.min(length, dataLength - offset)];
+    region.get(offset, bytes, 0, bytes.length);
+    return new String(bytes, ASCII);
+  }
+
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /** A read-only mapping of a file region that may be larger than one MappedByteBuffer. */
+  private static class Region {
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+
+    Region(FileChannel channel, long offset, long length, int segmentSize) throws IOException {
+      this.segmentSize = segmentSize;
+      int count = (int) ((length + segmentSize - 1) / segmentSize);
+      segments = new ByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        long start = (long) i * segmentSize;
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+            Math.min(segmentSize, length - start));
+        segments[i] = segment;
+      }
+    }
+
+    /** Copies bytes into dst. Safe for concurrent use. */
+    void get(long position, byte[] dst, int off, int len) {
+      while (len > 0) {
+        ByteBuffer segment = segments[(int) (position / segmentSize)];
+        int start = (int) (position % segmentSize);
+        int length = Math.min(len, segment.limit() - start);
+        ByteBuffer view = segment.duplicate();
+        view.position(start);
+        view.get(dst, off, length);
+        position += length;
+        off += length;
+        len -= length;
+      }
+    }
+
+    /** Reads a long. Index segments hold whole entries, so values never span segments. */
+    long getLong(long position) {
+      return segments[(int) (position / segmentSize)].getLong((int) (position % segmentSize));
+    }
+
+    int getInt(long position) {
+      return segments[(int) (position / segmentSize)].getInt((int) (position % segmentSize));
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a {@link Corpus} of log lines, card #s and long digit runs. Digit runs are generated
+ * one digit at a time with running Luhn sums over the last {@code maxLength - 1} digits, so a
+ * single case can be gigabytes long.
+ *
+ * <p>Usage: {@code java -cp tests/target/luhnybin-1.0-SNAPSHOT.jar
+ * com.squareup.luhnybin.CorpusGenerator [--rules FILE] FILE SIZE [MAX_RUN]}. SIZE and MAX_RUN
+ * accept K, M and G suffixes. Replay a corpus generated with {@code --rules} with the same rules.
+ *
+ * <p>Under rules with issuer prefixes, overlapping runs are left out, since not every window in
+ * them is allowed. Under rules with many lengths, a run without matches may end early when every
+ * next digit would complete a #.
+ */
+public class CorpusGenerator {
+
+  /** Sum of the digits of 2 * i. */
+  private static final int[] DOUBLED = { 0, 2, 4, 6, 8, 1, 3, 5, 7, 9 };
+
+  private static final String[] LOG_LINES = {
+      "INFO [main] com.squareup.payments.Ledger - Settled batch for merchant acme.",
+      "DEBUG [pool-thread] com.squareup.http.Client - GET /v/payments took a while",
+      "WARN [scheduler] com.squareup.jobs.Retry - Retrying job after timeout.",
+      "\tat com.squareup.payments.Ledger.settle(Ledger.java:412)",
+      "LF only -> <- LF only",
+      "",
+  };
+
+  private static final String[] NON_MATCHING_MESSAGES = {
+      "4111 1111 1111 111 doesn't have enough digits.",
+      "56613959932535089 has too many digits.",
+  };
+
+  /** Every digit, for when nothing can follow a run without completing a #. */
+  private static final int ALL_DIGITS = (1 << 10) - 1;
+
+  private final CorpusWriter writer;
+  private final Random random;
+  private final long maxRun;
+  private final CardRules rules;
+  private final int minLength;
+  private final int maxLength;
+
+  /** True if a run of zeros is masked, which it is unless the rules disallow a leading zero. */
+  private final boolean zerosMasked;
+
+  /** The last digits of the current run, indexed by position mod digits.length. */
+  private final int[] digits;
+  private final int digitsMask;
+  private long runLength;
+
+  CorpusGenerator(CorpusWriter writer, Random random, long maxRun) {
+    this(writer, random, maxRun, CardRules.DEFAULT);
+  }
+
+  CorpusGenerator(CorpusWriter writer, Random random, long maxRun, CardRules rules) {
+    this.writer = writer;
+    this.random = random;
+    this.maxRun = maxRun;
+    this.rules = rules;
+    this.minLength = rules.minLength;
+    this.maxLength = rules.maxLength;
+    char[] zeros = new char[maxLength];
+    Arrays.fill(zeros, '0');
+    this.zerosMasked = rules.allowsStart(new String(zeros));
+    this.digits = new int[Integer.highestOneBit(maxLength - 1) << 1];
+    this.digitsMask = digits.length - 1;
+  }
+
+  public static void main(String[] args) throws IOException {
+    CardRules rules = CardRules.DEFAULT;
+    int first = 0;
+    if (args.length > 1 && args[0].equals("--rules")) {
+      try {
+        rules = CardRules.read(new File(args[1]));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Error in " + args[1] + ": " + e.getMessage());
+        System.exit(1);
+      }
+      first = 2;
+    }
+    if (args.length - first < 2 || args.length - first > 3) {
+      System.err.println("Usage: CorpusGenerator [--rules FILE] FILE SIZE [MAX_RUN]");
+      System.exit(1);
+    }
+    File file = new File(args[first]);
+    long size = parseSize(args[first + 1]);
+    long maxRun = args.length - first > 2 ? parseSize(args[first + 2]) : 1000;
+    if (maxRun < 2 * rules.maxLength) {
+      System.err.println("MAX_RUN must be >= " + 2 * rules.maxLength + ".");
+      System.exit(1);
+    }
+
+    long start = System.nanoTime();
+    CorpusWriter writer = new CorpusWriter(file);
+    CorpusGenerator generator =
+        new CorpusGenerator(writer, new Random(0xDEADBEEF), maxRun, rules);
+    long cases = 0;
+    while (writer.dataLength() < size) {
+      generator.writeCase();
+      cases++;
+    }
+    writer.close();
+
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    System.out.printf("Wrote %,d cases (%,d bytes) to %s in %,dms.%n",
+        cases, writer.dataLength(), file, elapsed);
+  }
+
+  static long parseSize(String s) {
+    long multiplier = 1;
+    switch (Character.toUpperCase(s.charAt(s.length() - 1))) {
+      case 'K': multiplier = 1L << 10; break;
+      case 'M': multiplier = 1L << 20; break;
+      case 'G': multiplier = 1L << 30; break;
+      default: return Long.parseLong(s);
+    }
+    return Long.parseLong(s.substring(0, s.length() - 1)) * multiplier;
+  }
+
+  /** Writes one randomly chosen case. */
+  void writeCase() throws IOException {
+    int kind = random.nextInt(100);
+    if (kind < 50) {
+      writeCase("log line", LOG_LINES[random.nextInt(LOG_LINES.length)]);
+    } else if (kind < 60) {
+      int length = minLength + random.nextInt(maxLength - minLength + 1);
+      writer.startCase("valid " + length + "-digit #");
+      validNumber(length, '\0');
+      writer.endCase();
+    } else if (kind < 70) {
+      String separators = rules.separators;
+      char delimiter = separators.isEmpty()
+          ? '\0' : separators.charAt(random.nextInt(separators.length()));
+      writer.startCase("exception message containing a card #");
+      writer.write("java.lang.FakeException: ", "java.lang.FakeException: ");
+      validNumber(maxLength, delimiter);
+      writer.write(" is a card #.", " is a card #.");
+      writer.endCase();
+    } else if (kind < 78 || kind < 85 && rules.allowedStarts != null) {
+      writer.startCase("long sequence of digits with no matches");
+      nonMatchingRun(1 + nextLong(maxRun));
+      writer.endCase();
+    } else if (kind < 85) {
+      writer.startCase("long sequence of overlapping, valid #s");
+      overlappingRun(maxLength + nextLong(maxRun - maxLength + 1));
+      writer.endCase();
+    } else if (kind < 90) {
+      writer.startCase("sequence of zeros");
+      long length = minLength + nextLong(maxRun - minLength + 1);
+      byte expected = zerosMasked ? rules.mask : (byte) '0';
+      for (long i = 0; i < length; i++) writer.write((byte) '0', expected);
+      writer.endCase();
+    } else {
+      writeCase("non-matching message",
+          NON_MATCHING_MESSAGES[random.nextInt(NON_MATCHING_MESSAGES.length)]);
+    }
+  }
+
+  /** Writes a fixed line, masked by the reference, since other rules may match its digits. */
+  private void writeCase(String description, String input) throws IOException {
+    byte[] bytes = input.getBytes(Corpus.ASCII);
+    writeCase(description, input, new String(ReferenceMasker.mask(bytes, rules), Corpus.ASCII));
+  }
+
+  private void writeCase(String description, String input, String expected) throws IOException {
+    writer.startCase(description);
+    writer.write(input, expected);
+    writer.endCase();
+  }
+
+  /** Writes a valid, masked card #, with a delimiter every four digits unless it's '\0'. */
+  private void validNumber(int length, char delimiter) throws IOException {
+    runLength = 0;
+    String start = rules.someAllowedStart(random);
+    for (int i = 0; i < length; i++) {
+      if (delimiter != '\0' && i > 0 && i % 4 == 0) {
+        writer.write((byte) delimiter, (byte) delimiter);
+      }
+      int digit = i < start.length() ? start.charAt(i) - '0'
+          : i < length - 1 ? random.nextInt(10) : checkDigit(length - 1);
+      append(digit, true);
+    }
+  }
+
+  /** Writes digits that contain no card #. */
+  private void nonMatchingRun(long length) throws IOException {
+    runLength = 0;
+    for (long i = 0; i < length; i++) {
+      int excluded = excludedDigits();
+      if (excluded == ALL_DIGITS) return;
+      int digit;
+      do {
+        digit = random.nextInt(10);
+      } while ((excluded & (1 << digit)) != 0);
+      append(digit, false);
+    }
+  }
+
+  /** Writes digits in which every maxLength-digit window passes the Luhn check. */
+  private void overlappingRun(long length) throws IOException {
+    runLength = 0;
+    for (long i = 0; i < length; i++) {
+      int digit = i < maxLength - 1 ? random.nextInt(10) : checkDigit(maxLength - 1);
+      append(digit, true);
+    }
+  }
+
+  /**
+   * Returns a bit set of the digits that would complete a card # of any allowed length. Computes
+   * every length's check digit in one pass over the last maxLength - 1 digits.
+   */
+  private int excludedDigits() {
+    int available = (int) Math.min(runLength, maxLength - 1);
+    int sum = 0;
+    int excluded = 0;
+    for (int i = 0; i < available; i++) {
+      int digit = digits[(int) ((runLength - 1 - i) & digitsMask)];
+      sum += (i & 1) == 0 ? DOUBLED[digit] : digit;
+      if (i + 1 >= minLength - 1 && allowsStart(runLength - 1 - i)) {
+        excluded |= 1 << ((10 - sum % 10) % 10);
+      }
+    }
+    return excluded;
+  }
+
+  /** Returns true if the rules allow a # starting at position in the current run. */
+  private boolean allowsStart(long position) {
+    if (rules.allowedStarts == null) return true;
+    int start = 0;
+    for (int i = 0; i < rules.prefixDepth; i++) {
+      start = start * 10 + digits[(int) ((position + i) & digitsMask)];
+    }
+    return rules.allowedStarts.get(start);
+  }
+
+  private void append(int digit, boolean masked) throws IOException {
+    digits[(int) (runLength & digitsMask)] = digit;
+    runLength++;
+    byte c = (byte) ('0' + digit);
+    writer.write(c, masked ? rules.mask : c);
+  }
+
+  /** Computes the digit that makes the last prefixLength digits plus itself pass the check. */
+  private int checkDigit(int prefixLength) {
+    int sum = 0;
+    for (int i = 0; i < prefixLength; i++) {
+      int digit = digits[(int) ((runLength - 1 - i) & digitsMask)];
+      sum += (i & 1) == 0 ? DOUBLED[digit] : digit;
+    }
+    int remainder = sum % 10;
+    return remainder == 0 ? 0 : 10 - remainder;
+  }
+
+  private long nextLong(long bound) {
+    return (random.nextLong() >>> 1) % bound;
+  }
+}
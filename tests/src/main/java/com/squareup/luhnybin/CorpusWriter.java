@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams test cases to a {@link Corpus} file. Input goes straight to the corpus file while
+ * expected output and the index go to temporary files next to it; {@link #close()} appends them.
+ * Only fixed-size buffers are held in memory, however large the corpus or its cases.
+ */
+final class CorpusWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final File expectedFile;
+  private final RandomAccessFile expectedRaf;
+  private final File indexFile;
+  private final RandomAccessFile indexRaf;
+
+  private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ByteBuffer expected = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ByteBuffer index = ByteBuffer.allocateDirect(Corpus.INDEX_ENTRY_SIZE * 4096);
+
+  private final Map<String, Integer> descriptions = new LinkedHashMap<String, Integer>();
+
+  private long caseCount;
+  private long dataLength;
+  private boolean inCase;
+
+  CorpusWriter(File path) throws IOException {
+    File directory = path.getAbsoluteFile().getParentFile();
+    file = new RandomAccessFile(path, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    channel.position(Corpus.HEADER_SIZE);
+    expectedFile = File.createTempFile("corpus", ".expected", directory);
+    expectedRaf = new RandomAccessFile(expectedFile, "rw");
+    indexFile = File.createTempFile("corpus", ".index", directory);
+    indexRaf = new RandomAccessFile(indexFile, "rw");
+  }
+
+  /** Starts a new case. */
+  void startCase(String description) throws IOException {
+    if (inCase) throw new IllegalStateException("Previous case wasn't ended.");
+    inCase = true;
+
+    Integer id = descriptions.get(description);
+    if (id == null) {
+      id = descriptions.size();
+      descriptions.put(description, id);
+    }
+    if (index.remaining() < Corpus.INDEX_ENTRY_SIZE) drain(index, indexRaf.getChannel());
+    index.putLong(dataLength).putInt(id);
+    caseCount++;
+  }
+
+  /** Writes one input byte and the byte we expect the masker to turn it into. */
+  void write(byte in, byte out) throws IOException {
+    if (!input.hasRemaining()) drain(input, channel);
+    if (!expected.hasRemaining()) drain(expected, expectedRaf.getChannel());
+    input.put(in);
+    expected.put(out);
+    dataLength++;
+  }
+
+  /** Writes ASCII input and expected output of equal length. */
+  void write(String in, String out) throws IOException {
+    if (in.length() != out.length()) throw new IllegalArgumentException("Lengths differ.");
+    for (int i = 0; i < in.length(); i++) write((byte) in.charAt(i), (byte) out.charAt(i));
+  }
+
+  /** Ends the current case with a line feed. */
+  void endCase() throws IOException {
+    if (!inCase) throw new IllegalStateException("No case started.");
+    write((byte) '\n', (byte) '\n');
+    inCase = false;
+  }
+
+  long dataLength() {
+    return dataLength;
+  }
+
+  /** Appends the expected output, index and descriptions, and writes the header. */
+  public void close() throws IOException {
+    try {
+      if (inCase) throw new IllegalStateException("Last case wasn't ended.");
+      drain(input, channel);
+      drain(expected, expectedRaf.getChannel());
+      drain(index, indexRaf.getChannel());
+
+      long expectedOffset = Corpus.HEADER_SIZE + dataLength;
+      append(expectedRaf.getChannel());
+      long indexOffset = channel.position();
+      append(indexRaf.getChannel());
+      long descriptionsOffset = channel.position();
+
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream dout = new DataOutputStream(bout);
+      for (String description : descriptions.keySet()) dout.writeUTF(description);
+      dout.flush();
+      ByteBuffer encoded = ByteBuffer.wrap(bout.toByteArray());
+      while (encoded.hasRemaining()) channel.write(encoded);
+
+      ByteBuffer header = ByteBuffer.allocate(Corpus.HEADER_SIZE);
+      header.put(Corpus.MAGIC)
+          .putInt(Corpus.VERSION)
+          .putInt(descriptions.size())
+          .putLong(caseCount)
+          .putLong(dataLength)
+          .putLong(Corpus.HEADER_SIZE)
+          .putLong(expectedOffset)
+          .putLong(indexOffset)
+          .putLong(descriptionsOffset);
+      header.flip();
+      for (long position = 0; header.hasRemaining(); ) position += channel.write(header, position);
+      channel.force(false);
+    } finally {
+      file.close();
+      expectedRaf.close();
+      indexRaf.close();
+      expectedFile.delete();
+      indexFile.delete();
+    }
+  }
+
+  private void append(FileChannel source) throws IOException {
+    long size = source.size();
+    for (long position = 0; position < size; ) {
+      position += source.transferTo(position, size - position, channel);
+    }
+  }
+
+  /** Writes out everything put into buffer so far and clears it. */
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+}
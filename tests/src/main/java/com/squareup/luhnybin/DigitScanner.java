@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the next ASCII digit in a span of bytes. Most log text has no digits at all, so skipping
+ * to the next one is where the masker spends most of its time.
+ *
+ * <p>{@link #INSTANCE} uses {@code VectorDigitScanner} when the JVM has the
+ * {@code jdk.incubator.vector} module, and falls back to a SWAR scan of 8 bytes per {@code long}
+ * otherwise.
+ */
+abstract class DigitScanner {
+
+  static final DigitScanner INSTANCE = create();
+
+  /**
+   * Returns the index of the first digit in buffer[from..to), or to if there isn't one. Ignores
+   * the buffer's position and limit. Callers scanning arrays wrap them once and reuse the
+   * wrapper, so scanning doesn't allocate.
+   */
+  abstract int nextDigit(ByteBuffer buffer, int from, int to);
+
+  /** Name shown in benchmarks. */
+  abstract String name();
+
+  private static DigitScanner create() {
+    try {
+      return (DigitScanner) Class.forName("com.squareup.luhnybin.VectorDigitScanner")
+          .getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      return new Swar();
+    } catch (LinkageError e) {
+      // The class wasn't compiled or the module wasn't resolved (--add-modules).
+      return new Swar();
+    }
+  }
+
+  static boolean isDigit(byte c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /** One byte at a time. The baseline for benchmarks, and the tail of the other scanners. */
+  static final class Scalar extends DigitScanner {
+    @Override int nextDigit(ByteBuffer buffer, int from, int to) {
+      for (int i = from; i < to; i++) {
+        if (isDigit(buffer.get(i))) return i;
+      }
+      return to;
+    }
+
+    @Override String name() {
+      return "scalar";
+    }
+  }
+
+  /**
+   * Eight bytes per step. XOR with '0' maps digits to 0-9; a byte is then a digit if its high bit
+   * is clear and adding 0x76 to its low 7 bits doesn't carry into the high bit. The low bits never
+   * carry into the next byte, so every byte's flag is exact.
+   */
+  static final class Swar extends DigitScanner {
+    private static final long ZEROS = 0x3030303030303030L;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long TEN_OR_MORE = 0x7676767676767676L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final Scalar scalar = new Scalar();
+
+    @Override int nextDigit(ByteBuffer buffer, int from, int to) {
+      boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+      int i = from;
+      for (; i <= to - 8; i += 8) {
+        long flags = digitFlags(buffer.getLong(i));
+        if (flags != 0) {
+          int zeros = littleEndian
+              ? Long.numberOfTrailingZeros(flags)
+              : Long.numberOfLeadingZeros(flags);
+          return i + (zeros >>> 3);
+        }
+      }
+      return scalar.nextDigit(buffer, i, to);
+    }
+
+    /** Sets the high bit of every digit byte in word. */
+    static long digitFlags(long word) {
+      long x = word ^ ZEROS;
+      return ~(((x & LOW_BITS) + TEN_OR_MORE) | x) & HIGH_BITS;
+    }
+
+    @Override String name() {
+      return "swar";
+    }
+  }
+}
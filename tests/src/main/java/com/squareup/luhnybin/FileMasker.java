@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * Masks a file through a memory mapping. The mapped bytes are scanned in place; only spans near
+ * digits are copied onto the heap and run through a {@link LuhnMasker}. Long digit-free spans
+ * skip the heap entirely: they're copied to the output file with {@link FileChannel#transferTo},
+ * or left alone when masking in place.
+ *
+ * <p>The masker's state only resets at a byte that can't be part of a card #, so a digit-free
+ * span is only copied directly once such a byte has been fed to the masker. Shorter spans go
+ * through the masker with their neighbors; a system call per span would cost more than the copy.
+ */
+final class FileMasker {
+
+  static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  /** Digit-free spans at least this long are copied directly. */
+  static final int MIN_TRANSFER = 16 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int segmentSize;
+  private final CardRules rules;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private ByteBuffer[] segments;
+  private Sink sink;
+  private LuhnMasker masker;
+
+  /** Input up to this position has been handed to the sink. */
+  private long fed;
+
+  FileMasker() {
+    this(DEFAULT_SEGMENT_SIZE, CardRules.DEFAULT);
+  }
+
+  FileMasker(int segmentSize) {
+    this(segmentSize, CardRules.DEFAULT);
+  }
+
+  FileMasker(int segmentSize, CardRules rules) {
+    this.segmentSize = segmentSize;
+    this.rules = rules;
+  }
+
+  /**
+   * Masks in to out, replacing out if it exists. If out is in, through a link or otherwise, masks
+   * in place instead; truncating out would empty the input.
+   */
+  void mask(File in, File out) throws IOException {
+    if (out.exists() && Files.isSameFile(in.toPath(), out.toPath())) {
+      mask(in);
+      return;
+    }
+    RandomAccessFile input = new RandomAccessFile(in, "r");
+    try {
+      RandomAccessFile output = new RandomAccessFile(out, "rw");
+      try {
+        output.setLength(0);
+        FileChannel channel = input.getChannel();
+        mask(channel, FileChannel.MapMode.READ_ONLY, new ChannelSink(channel, output.getChannel()));
+      } finally {
+        output.close();
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Masks file in place. Masking never changes lengths, so only the masked digits are written
+   * back; every other byte is left as it is. Returns once they're on the storage device.
+   */
+  void mask(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "rw");
+    try {
+      mask(input.getChannel(), FileChannel.MapMode.READ_WRITE, new InPlaceSink());
+      // Forcing the channel doesn't cover writes through a mapping.
+      for (ByteBuffer segment : segments) ((MappedByteBuffer) segment).force();
+    } finally {
+      input.close();
+    }
+  }
+
+  private void mask(FileChannel channel, FileChannel.MapMode mode, Sink sink) throws IOException {
+    long size = channel.size();
+    int count = (int) ((size + segmentSize - 1) / segmentSize);
+    segments = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long start = (long) i * segmentSize;
+      // Little-endian words let the SWAR digit scanner skip a byte swap.
+      segments[i] = channel.map(mode, start, Math.min(segmentSize, size - start))
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    this.sink = sink;
+    masker = new LuhnMasker(sink, rules);
+    fed = 0;
+
+    // True if the masker has reset since the last digit, so digit-free bytes pass as is.
+    boolean clean = true;
+    for (int s = 0; s < count; s++) {
+      ByteBuffer segment = segments[s];
+      long base = (long) s * segmentSize;
+      int limit = segment.limit();
+      int i = 0;
+      while (i < limit) {
+        if (clean) {
+          int digit = DigitScanner.INSTANCE.nextDigit(segment, i, limit);
+          if (digit == limit) break;
+          long position = base + digit;
+          if (position - fed >= MIN_TRANSFER) pass(position);
+          clean = false;
+          i = digit + 1;
+        } else {
+          byte c = segment.get(i++);
+          if (rules.endsRun(c)) {
+            feed(base + i);
+            clean = true;
+          } else if (base + i - fed == BUFFER_SIZE) {
+            feed(base + i);
+          }
+        }
+      }
+    }
+
+    if (clean && size - fed >= MIN_TRANSFER) {
+      pass(size);
+    } else {
+      feed(size);
+    }
+    masker.finish();
+  }
+
+  /** Runs input up to the given position through the masker. */
+  private void feed(long to) throws IOException {
+    while (fed < to) {
+      int length = (int) Math.min(buffer.length, to - fed);
+      get(fed, buffer, 0, length);
+      masker.write(buffer, 0, length);
+      fed += length;
+    }
+  }
+
+  /** Passes digit-free input up to the given position through unchanged. */
+  private void pass(long to) throws IOException {
+    masker.flush();
+    sink.pass(fed, to - fed);
+    fed = to;
+  }
+
+  private void get(long position, byte[] dst, int off, int len) {
+    while (len > 0) {
+      ByteBuffer view = segments[(int) (position / segmentSize)].duplicate();
+      view.position((int) (position % segmentSize));
+      int length = Math.min(len, view.remaining());
+      view.get(dst, off, length);
+      position += length;
+      off += length;
+      len -= length;
+    }
+  }
+
+  /** Receives masked output in order. */
+  private abstract static class Sink extends OutputStream {
+    @Override public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /** Copies length bytes of input starting at position to the output unchanged. */
+    abstract void pass(long position, long length) throws IOException;
+  }
+
+  /** Writes to a separate output file. */
+  private static class ChannelSink extends Sink {
+    private final FileChannel in;
+    private final FileChannel out;
+    private final OutputStream stream;
+
+    ChannelSink(FileChannel in, FileChannel out) {
+      this.in = in;
+      this.out = out;
+      this.stream = Channels.newOutputStream(out);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      stream.write(b, off, len);
+    }
+
+    @Override void pass(long position, long length) throws IOException {
+      while (length > 0) {
+        long transferred = in.transferTo(position, length, out);
+        // The input shrank after it was mapped.
+        if (transferred == 0) throw new EOFException("Input ended at " + position + ".");
+        position += transferred;
+        length -= transferred;
+      }
+    }
+  }
+
+  /**
+   * Writes masked digits back over the input. Bytes the masker left alone aren't written, so
+   * their pages stay clean.
+   */
+  private class InPlaceSink extends Sink {
+    private long position;
+
+    @Override public void write(byte[] b, int off, int len) {
+      while (len > 0) {
+        ByteBuffer segment = segments[(int) (position / segmentSize)];
+        int index = (int) (position % segmentSize);
+        int length = Math.min(len, segment.limit() - index);
+        for (int i = 0; i < length; i++) {
+          byte c = b[off + i];
+          if (segment.get(index + i) != c) segment.put(index + i, c);
+        }
+        position += length;
+        off += length;
+        len -= length;
+      }
+    }
+
+    @Override void pass(long from, long length) {
+      position = from + length;
+    }
+  }
+}
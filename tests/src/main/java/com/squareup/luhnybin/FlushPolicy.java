@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+/**
+ * When a {@link LuhnMasker} writes out bytes it's done with. Bytes that may still be masked are
+ * held back under every policy; the policies differ in how long finished bytes wait.
+ */
+enum FlushPolicy {
+
+  /**
+   * Writes out and flushes at the end of every write, so output never waits for more input.
+   * Masked digits go out as soon as they're masked instead of waiting for the digits after them.
+   * For interactive tailing, where a line should appear as soon as its line feed is read.
+   *
+   * <p>Flushes once per write, not at each line feed within one: the bytes of a single write are
+   * masked microseconds apart, so a flush per line would cost a system call per line without
+   * getting anything out meaningfully sooner.
+   */
+  LOW_LATENCY(8 * 1024),
+
+  /**
+   * Writes out when the caller flushes or the buffer fills. mask.sh flushes whenever it would
+   * otherwise wait for input, so output keeps up with a slow producer and coalesces behind a
+   * fast one.
+   */
+  ADAPTIVE(8 * 1024),
+
+  /**
+   * Like {@link #ADAPTIVE}, but coalesces output into writes 32 times larger. For archive jobs,
+   * where nobody reads the output until it's done.
+   */
+  BATCH(256 * 1024);
+
+  /** Bytes of finished output the masker buffers. */
+  final int bufferSize;
+
+  FlushPolicy(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Differential fuzzer. Builds random inputs from the {@link LuhnyBinTests} generators, and
+ * mutants of the suite's own cases, masks each one with the masker under test and with
+ * {@link ReferenceMasker}, and stops at the first input where they disagree. That input is then
+ * shrunk to a reproducer from which no byte can be removed without the disagreement going away.
+ *
+ * <p>The masker under test gets each input in randomly sized writes, each followed by a flush,
+ * so bugs at write boundaries and in flushing show up too. Every worker thread has its own
+ * {@link Random}, seeded from the run's seed and the worker's index.
+ *
+ * <p>Inputs stay shorter than {@link LuhnMasker#HOLDBACK_CAPACITY}, where the reference and the
+ * streaming masker agree.
+ */
+final class Fuzzer {
+
+  static final int MAX_INPUT = LuhnMasker.HOLDBACK_CAPACITY - 1;
+
+  /** Text that can show up around card #s, including multi-byte characters. */
+  private static final String[] TEXT = {
+      "a", "x", "Card #", ": ", ".", "\n", "\t", "\u00e9", "\u00a0", "\u4e2d", "\u0663",
+      "\ud83d\ude00", "\u00ff", "+", "/", "0x"
+  };
+
+  /** Bytes that mutations drop in. */
+  private static final byte[] INTERESTING = "0123456789 -x\n\u00e9".getBytes(TestCase.UTF_8);
+
+  /** A masker input that the masker under test got wrong. */
+  static final class Failure {
+    final byte[] input;
+    /** Sizes of the writes input was sent in. */
+    final int[] writes;
+    final byte[] expected;
+    /** What the masker under test wrote, or null if it threw. */
+    final byte[] actual;
+    final Throwable thrown;
+
+    Failure(byte[] input, int[] writes, byte[] expected, byte[] actual, Throwable thrown) {
+      this.input = input;
+      this.writes = writes;
+      this.expected = expected;
+      this.actual = actual;
+      this.thrown = thrown;
+    }
+  }
+
+  private final Masker masker;
+  private final CardRules rules;
+  private final List<byte[]> seeds = new ArrayList<byte[]>();
+
+  private final AtomicLong inputs = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+
+  /** Fuzzes masker, which must mask by rules, starting from the cases in suite. */
+  Fuzzer(Masker masker, CardRules rules, TestSuite suite) {
+    this.masker = masker;
+    this.rules = rules;
+    for (int i = 0; i < suite.caseCount(); i++) {
+      byte[] input = suite.testCase(i).outputBytes;
+      if (input.length <= MAX_INPUT) seeds.add(input);
+    }
+  }
+
+  /** Number of inputs checked so far. */
+  long inputs() {
+    return inputs.get();
+  }
+
+  /** Number of input bytes checked so far. */
+  long bytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Fuzzes on threads workers until nanos have passed or the masker under test gets an input
+   * wrong. Returns the shrunk failure, or null if there wasn't one.
+   */
+  Failure run(int threads, long seed, long nanos) {
+    final long deadline = System.nanoTime() + nanos;
+    final CountDownLatch done = new CountDownLatch(threads);
+    Executor executor = Main.newExecutor();
+    for (int i = 0; i < threads; i++) {
+      final Random random = new Random(seed * 31 + i);
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            fuzz(random, deadline);
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+    return failure.get();
+  }
+
+  private void fuzz(Random random, long deadline) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long count = 0;
+    long length = 0;
+    while (failure.get() == null) {
+      // Reading the clock costs more than masking a short input, so only check it now and then.
+      if ((count & 0xff) == 0 && System.nanoTime() >= deadline) break;
+      byte[] input = random.nextBoolean() ? generate(random) : mutate(random);
+      long splitSeed = random.nextLong();
+      if (check(input, splitSeed, out) != null) {
+        failure.compareAndSet(null, check(shrink(input, splitSeed, out), splitSeed, out));
+        break;
+      }
+      count++;
+      length += input.length;
+    }
+    inputs.addAndGet(count);
+    bytes.addAndGet(length);
+  }
+
+  /** Returns a random input made of pieces from the suite's generators. */
+  byte[] generate(Random random) {
+    StringBuilder input = new StringBuilder();
+    int pieces = 1 + random.nextInt(12);
+    for (int i = 0; i < pieces; i++) {
+      appendPiece(random, input);
+    }
+    return truncate(input.toString().getBytes(TestCase.UTF_8));
+  }
+
+  private void appendPiece(Random random, StringBuilder input) {
+    int min = rules.minLength;
+    int max = rules.maxLength;
+    switch (random.nextInt(11)) {
+      case 0:
+        input.append(LuhnyBinTests.randomNumber(random, min + random.nextInt(max - min + 1)));
+        break;
+      case 1:
+        // Just too short or too long, or just right.
+        input.append(LuhnyBinTests.randomNumber(random,
+            Math.max(2, min - 2 + random.nextInt(max - min + 5))));
+        break;
+      case 2:
+        input.append(LuhnyBinTests.formatNumber(
+            LuhnyBinTests.randomNumber(random, min + random.nextInt(max - min + 1)),
+            separator(random)));
+        break;
+      case 3:
+        input.append(LuhnyBinTests.nestedNumber(random));
+        break;
+      case 4:
+        input.append(LuhnyBinTests.overlappingSequence(random, max + random.nextInt(200),
+            min + random.nextInt(max - min + 1)));
+        break;
+      case 5:
+        input.append(LuhnyBinTests.nonMatchingSequence(random, random.nextInt(100), min, max));
+        break;
+      case 6:
+        // A card # with separators strewn between its digits.
+        String number = LuhnyBinTests.randomNumber(random, min + random.nextInt(max - min + 1));
+        for (int i = 0; i < number.length(); i++) {
+          input.append(number.charAt(i));
+          while (random.nextInt(4) == 0) input.append(separator(random));
+        }
+        break;
+      case 7:
+        for (int i = random.nextInt(30); i > 0; i--) input.append(separator(random));
+        break;
+      case 8:
+        for (int i = random.nextInt(30); i > 0; i--) {
+          input.append((char) ('0' + random.nextInt(10)));
+        }
+        break;
+      case 9:
+        input.append('\n');
+        break;
+      default:
+        input.append(TEXT[random.nextInt(TEXT.length)]);
+    }
+  }
+
+  /** Returns a random separator, or a space if the rules don't allow any. */
+  private char separator(Random random) {
+    String separators = rules.separators;
+    return separators.isEmpty() ? ' ' : separators.charAt(random.nextInt(separators.length()));
+  }
+
+  /** Returns a suite case or a generated input with a few random edits. */
+  byte[] mutate(Random random) {
+    byte[] input = random.nextInt(4) == 0
+        ? generate(random)
+        : seeds.get(random.nextInt(seeds.size()));
+    ByteArrayOutputStream mutant = new ByteArrayOutputStream(input.length + 16);
+    for (int edits = 1 + random.nextInt(8); edits > 0; edits--) {
+      mutant.reset();
+      int at = random.nextInt(input.length + 1);
+      switch (random.nextInt(5)) {
+        case 0:
+          // Replace a byte.
+          if (at == input.length) continue;
+          mutant.write(input, 0, at);
+          mutant.write(INTERESTING[random.nextInt(INTERESTING.length)]);
+          mutant.write(input, at + 1, input.length - at - 1);
+          break;
+        case 1:
+          // Insert a byte.
+          mutant.write(input, 0, at);
+          mutant.write(INTERESTING[random.nextInt(INTERESTING.length)]);
+          mutant.write(input, at, input.length - at);
+          break;
+        case 2:
+          // Delete a few bytes.
+          int deleted = Math.min(input.length - at, 1 + random.nextInt(4));
+          mutant.write(input, 0, at);
+          mutant.write(input, at + deleted, input.length - at - deleted);
+          break;
+        case 3:
+          // Repeat a slice.
+          int length = random.nextInt(input.length - at + 1);
+          mutant.write(input, 0, at + length);
+          mutant.write(input, at, input.length - at);
+          break;
+        default:
+          // Splice in part of another seed.
+          byte[] other = seeds.get(random.nextInt(seeds.size()));
+          int from = random.nextInt(other.length + 1);
+          mutant.write(input, 0, at);
+          mutant.write(other, from, random.nextInt(other.length - from + 1));
+          mutant.write(input, at, input.length - at);
+      }
+      input = truncate(mutant.toByteArray());
+    }
+    return input;
+  }
+
+  private static byte[] truncate(byte[] input) {
+    return input.length <= MAX_INPUT ? input : Arrays.copyOf(input, MAX_INPUT);
+  }
+
+  /**
+   * Removes chunks of input, halving their size down to single bytes, for as long as the masker
+   * under test still gets it wrong.
+   */
+  byte[] shrink(byte[] input, long splitSeed, ByteArrayOutputStream out) {
+    int chunk = Math.max(1, input.length / 2);
+    while (true) {
+      boolean removed = false;
+      for (int start = 0; start + chunk <= input.length; ) {
+        byte[] candidate = new byte[input.length - chunk];
+        System.arraycopy(input, 0, candidate, 0, start);
+        System.arraycopy(input, start + chunk, candidate, start, candidate.length - start);
+        if (check(candidate, splitSeed, out) != null) {
+          input = candidate;
+          removed = true;
+        } else {
+          start += chunk;
+        }
+      }
+      if (!removed) {
+        if (chunk == 1) return input;
+        chunk /= 2;
+      }
+    }
+  }
+
+  /**
+   * Masks input with the masker under test, in writes sized by splitSeed, and with the
+   * reference. Returns a failure if they disagree, or null.
+   */
+  Failure check(byte[] input, long splitSeed, ByteArrayOutputStream out) {
+    byte[] expected = ReferenceMasker.mask(input, rules);
+    int[] writes = writes(input.length, splitSeed);
+    out.reset();
+    try {
+      OutputStream masking = masker.open(out);
+      int offset = 0;
+      for (int write : writes) {
+        masking.write(input, offset, write);
+        masking.flush();
+        offset += write;
+      }
+      masking.close();
+    } catch (IOException e) {
+      return new Failure(input, writes, expected, null, e);
+    } catch (RuntimeException e) {
+      return new Failure(input, writes, expected, null, e);
+    }
+    byte[] actual = out.toByteArray();
+    return Arrays.equals(expected, actual)
+        ? null
+        : new Failure(input, writes, expected, actual, null);
+  }
+
+  /** Splits length bytes into writes: often one at a time, sometimes all at once. */
+  static int[] writes(int length, long splitSeed) {
+    Random random = new Random(splitSeed);
+    if (length == 0 || random.nextInt(4) == 0) return new int[] { length };
+    int[] writes = new int[length];
+    int count = 0;
+    for (int remaining = length; remaining > 0; ) {
+      int write = random.nextBoolean() ? 1 : 1 + random.nextInt(remaining);
+      writes[count++] = write;
+      remaining -= write;
+    }
+    return Arrays.copyOf(writes, count);
+  }
+
+  /** Returns bytes as a quoted string, escaping anything that isn't printable ASCII. */
+  static String escape(byte[] bytes) {
+    StringBuilder escaped = new StringBuilder("\"");
+    for (byte b : bytes) {
+      int c = b & 0xff;
+      if (c == '\n') {
+        escaped.append("\\n");
+      } else if (c == '"' || c == '\\') {
+        escaped.append('\\').append((char) c);
+      } else if (c >= 0x20 && c < 0x7f) {
+        escaped.append((char) c);
+      } else {
+        escaped.append(String.format("\\x%02x", c));
+      }
+    }
+    return escaped.append('"').toString();
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Checks that a {@link Masker} writes out every byte as soon as it can no longer be masked. The
+ * suite is sent one byte at a time with a flush after each, or without flushes for maskers that
+ * write out on their own, and after every byte the output may trail the input by at most one
+ * card-length window: the bytes from the oldest of the current run's last {@code maxLength} digits
+ * on. Anything before that can't be part of a card # that's still incomplete, so holding it back
+ * only adds latency. A masker that decodes text may also hold back an incomplete UTF-8 character.
+ *
+ * <p>The output is checked against the expected output as it comes, too.
+ */
+final class HoldbackCheck {
+
+  private final Masker masker;
+  private final CardRules rules;
+  private final TestSuite suite;
+  private final boolean flush;
+
+  /** Most bytes held back after any byte. */
+  private int maxHeld;
+
+  HoldbackCheck(Masker masker, CardRules rules, TestSuite suite) {
+    this(masker, rules, suite, true);
+  }
+
+  /**
+   * @param flush false to never flush before the end, for a masker that should write out what it
+   *     can by itself, like one with {@link FlushPolicy#LOW_LATENCY}
+   */
+  HoldbackCheck(Masker masker, CardRules rules, TestSuite suite, boolean flush) {
+    this.masker = masker;
+    this.rules = rules;
+    this.suite = suite;
+    this.flush = flush;
+  }
+
+  /** Runs the suite. Returns a description of the first problem, or null if there were none. */
+  String run() throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    int caseCount = (int) suite.caseCount();
+    int[] caseStarts = new int[caseCount];
+    for (int i = 0; i < caseCount; i++) {
+      TestCase testCase = suite.testCase(i);
+      caseStarts[i] = input.size();
+      input.write(testCase.outputBytes);
+      expected.write(testCase.expectedBytes);
+    }
+    byte[] in = input.toByteArray();
+    byte[] want = expected.toByteArray();
+
+    Output output = new Output(want.length);
+    OutputStream out = masker.open(output);
+    int checked = 0;
+
+    // Input offsets of the current run's last maxLength digits, in a ring.
+    int[] digits = new int[rules.maxLength];
+    int runDigits = 0;
+
+    // Offset and missing bytes of an incomplete UTF-8 character.
+    int charStart = -1;
+    int charRemaining = 0;
+
+    int caseIndex = 0;
+    for (int i = 0; i < in.length; i++) {
+      while (caseIndex + 1 < caseCount && caseStarts[caseIndex + 1] <= i) caseIndex++;
+      byte c = in[i];
+      out.write(c);
+      if (flush) out.flush();
+
+      if (rules.endsRun(c)) {
+        runDigits = 0;
+      } else if (c >= '0' && c <= '9') {
+        digits[runDigits % digits.length] = i;
+        runDigits++;
+      }
+      if ((c & 0xc0) == 0xc0) {
+        charStart = i;
+        charRemaining = Integer.numberOfLeadingZeros(~(c << 24)) - 1;
+      } else if ((c & 0xc0) == 0x80 && charRemaining > 0 && --charRemaining == 0) {
+        charStart = -1;
+      }
+
+      int length = i + 1;
+      int holdFrom = length;
+      if (runDigits > 0) holdFrom = digits[Math.max(0, runDigits - digits.length) % digits.length];
+      if (charStart != -1) holdFrom = Math.min(holdFrom, charStart);
+
+      int written = output.size();
+      if (written > length) return "Wrote more output than input.";
+      for (; checked < written; checked++) {
+        if (output.get(checked) != want[checked]) {
+          int at = caseAt(caseStarts, checked);
+          return describe(at) + "expected '" + (char) want[checked] + "' at offset "
+              + (checked - caseStarts[at]) + " but got '" + (char) output.get(checked) + "'.";
+        }
+      }
+      int held = length - written;
+      maxHeld = Math.max(maxHeld, held);
+      if (written < holdFrom) {
+        return describe(caseIndex) + "held back " + held + " bytes after offset "
+            + (i - caseStarts[caseIndex]) + ", but only " + (length - holdFrom)
+            + " may be held back.";
+      }
+    }
+
+    out.close();
+    if (output.size() != want.length) {
+      return "Wrote " + output.size() + " bytes in all, expected " + want.length + ".";
+    }
+    return null;
+  }
+
+  /** Returns the most bytes held back after any byte. */
+  int maxHeld() {
+    return maxHeld;
+  }
+
+  private String describe(int caseIndex) {
+    return "Test #" + (caseIndex + 1) + " (" + suite.testCase(caseIndex).description + "): ";
+  }
+
+  /** Returns the index of the case that the byte at offset belongs to. */
+  private static int caseAt(int[] caseStarts, int offset) {
+    int index = Arrays.binarySearch(caseStarts, offset);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /** Collects output where it can be checked without copying. */
+  private static class Output extends ByteArrayOutputStream {
+    Output(int size) {
+      super(size);
+    }
+
+    byte get(int index) {
+      return buf[index];
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls into classes from src/main/java17, which only the jdk17 build profile compiles. The rest
+ * of the tree targets Java 8, so it can't refer to them directly.
+ */
+final class Jdk17 {
+
+  private Jdk17() {}
+
+  /**
+   * Calls the static method named run on the given class. Exits with a message if the class
+   * isn't available.
+   */
+  static void run(String className, Object... args) throws IOException {
+    Method run = null;
+    try {
+      Class<?> c = Class.forName("com.squareup.luhnybin." + className);
+      for (Method method : c.getDeclaredMethods()) {
+        if (method.getName().equals("run")) run = method;
+      }
+    } catch (ClassNotFoundException e) {
+      unavailable(className);
+    } catch (UnsupportedClassVersionError e) {
+      unavailable(className);
+    }
+    if (run == null) throw new AssertionError("No run() method in " + className);
+
+    try {
+      run.invoke(null, args);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new AssertionError(cause);
+    }
+  }
+
+  private static void unavailable(String className) {
+    System.err.println(className + " needs Java 17. Build and run with JDK 17 or later.");
+    System.exit(1);
+  }
+}
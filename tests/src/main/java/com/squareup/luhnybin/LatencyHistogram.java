@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of nanosecond values in the style of HdrHistogram. Each power of two is
+ * split into 64 linear sub-buckets, so percentiles are accurate to within 1.6% over the whole
+ * range of long. Recording never allocates.
+ *
+ * <p>Not thread safe.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[index(Long.MAX_VALUE) + 1];
+  private long count;
+  private long sum;
+  private long max;
+
+  void record(long value) {
+    if (value < 0) value = 0;
+    counts[index(value)]++;
+    count++;
+    sum += value;
+    if (value > max) max = value;
+  }
+
+  /** Adds everything recorded by other to this histogram. */
+  void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+    count += other.count;
+    sum += other.sum;
+    if (other.max > max) max = other.max;
+  }
+
+  void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  long count() {
+    return count;
+  }
+
+  long max() {
+    return max;
+  }
+
+  long mean() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /** Returns the value at the given percentile, like 99.9, rounded up to its bucket's limit. */
+  long percentile(double percentile) {
+    if (count == 0) return 0;
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) return Math.min(highestValue(i), max);
+    }
+    return max;
+  }
+
+  /**
+   * Values below 2 * SUB_BUCKETS map to themselves. Above that, the top SUB_BUCKET_BITS + 1
+   * bits pick a sub-bucket within the value's power of two.
+   */
+  static int index(long value) {
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1));
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  /** Returns the largest value that maps to index. */
+  static long highestValue(int index) {
+    int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+    long lowest = (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each test case takes to come back from the masker, measured from just before
+ * its last byte is written to the arrival of its last output byte, and how long the first output
+ * byte of each iteration takes. The writer thread calls {@link #sent}; the reader thread calls
+ * everything else.
+ */
+final class LatencyRecorder {
+
+  private final AtomicLongArray sentAt;
+
+  final LatencyHistogram caseLatency = new LatencyHistogram();
+  final LatencyHistogram firstByte = new LatencyHistogram();
+
+  private volatile long iterationStart;
+  private boolean firstByteSeen;
+
+  LatencyRecorder(int caseCount) {
+    sentAt = new AtomicLongArray(caseCount);
+  }
+
+  /** Marks the start of an iteration, before its first byte is written. */
+  void startIteration() {
+    firstByteSeen = false;
+    iterationStart = System.nanoTime();
+  }
+
+  /** Called right before the last byte of the given case is written. */
+  void sent(int caseNumber) {
+    sentAt.set(caseNumber, System.nanoTime());
+  }
+
+  /** Called once the last output byte of the given case has been read. */
+  void received(int caseNumber) {
+    caseLatency.record(System.nanoTime() - sentAt.get(caseNumber));
+  }
+
+  /** Wraps the masker's output so the first byte of each iteration is timed. */
+  InputStream wrap(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0 && !firstByteSeen) {
+          firstByte.record(System.nanoTime() - iterationStart);
+          firstByteSeen = true;
+        }
+        return read;
+      }
+    };
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs several mask.sh instances at once, each with its own writer and verifier thread. Rounds
+ * double the number of instances up to a maximum and report aggregate and per-instance
+ * throughput, so contention between instances shows up as aggregate throughput that stops
+ * growing.
+ *
+ * <p>Each instance masks one untimed iteration first, so JVM startup isn't counted. Timing starts
+ * once every instance has warmed up.
+ */
+final class LoadTest {
+
+  private final Suite suite;
+  private final int maxInstances;
+  private final int iterations;
+
+  LoadTest(Suite suite, int maxInstances, int iterations) {
+    this.suite = suite;
+    this.maxInstances = maxInstances;
+    this.iterations = iterations;
+  }
+
+  void run() throws IOException {
+    System.out.printf("Running %,d iteration(s) of %,d bytes per instance against mask.sh...%n",
+        iterations, suite.length());
+    System.out.println();
+    System.out.println("Instances  Aggregate      Per instance (min / mean / max)");
+
+    for (int instances = 1; ; instances = Math.min(instances * 2, maxInstances)) {
+      try {
+        round(instances);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      if (instances == maxInstances) break;
+    }
+    System.out.println();
+  }
+
+  private void round(int count) throws IOException, InterruptedException {
+    Executor executor = Main.newExecutor();
+    CountDownLatch ready = new CountDownLatch(count);
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(count);
+
+    Instance[] instances = new Instance[count];
+    for (int i = 0; i < count; i++) {
+      instances[i] = new Instance(i + 1, Main.startMaskSh(executor), ready, start, done);
+      instances[i].start(executor);
+    }
+
+    ready.await();
+    long wallStart = System.nanoTime();
+    start.countDown();
+    done.await();
+    long wall = System.nanoTime() - wallStart;
+
+    for (Instance instance : instances) instance.process.destroy();
+
+    double bytes = (double) suite.length() * iterations;
+    double min = Double.MAX_VALUE;
+    double max = 0;
+    double sum = 0;
+    for (Instance instance : instances) {
+      double throughput = megabytesPerSecond(bytes, instance.elapsed);
+      min = Math.min(min, throughput);
+      max = Math.max(max, throughput);
+      sum += throughput;
+    }
+    System.out.printf("%9d  %,8.1f MB/s  %,.1f / %,.1f / %,.1f MB/s%n", count,
+        megabytesPerSecond(bytes * count, wall), min, sum / count, max);
+  }
+
+  private static double megabytesPerSecond(double bytes, long nanos) {
+    return bytes / (1 << 20) / (nanos / 1e9);
+  }
+
+  /** One mask.sh process with its writer and verifier. */
+  private class Instance {
+    final int number;
+    final Process process;
+    final CountDownLatch ready;
+    final CountDownLatch start;
+    final CountDownLatch done;
+    volatile long elapsed;
+
+    Instance(int number, Process process, CountDownLatch ready, CountDownLatch start,
+        CountDownLatch done) {
+      this.number = number;
+      this.process = process;
+      this.ready = ready;
+      this.start = start;
+      this.done = done;
+    }
+
+    void start(Executor executor) {
+      executor.execute(new Runnable() {
+        public void run() {
+          write();
+        }
+      });
+      executor.execute(new Runnable() {
+        public void run() {
+          verify();
+        }
+      });
+    }
+
+    private void write() {
+      try {
+        byte[] chunk = new byte[StreamingVerifier.CHUNK_SIZE];
+        OutputStream out = new BufferedOutputStream(process.getOutputStream(), chunk.length);
+        suite.writeTo(out, chunk);
+        out.flush();
+        start.await();
+        for (int i = 0; i < iterations; i++) suite.writeTo(out, chunk);
+        out.close();
+      } catch (IOException e) {
+        fail(e.toString());
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void verify() {
+      StreamingVerifier verifier = new StreamingVerifier(suite, new StreamingVerifier.Listener() {
+        public void casePassed(long caseNumber) {}
+
+        public void caseFailed(long caseNumber, long offset, byte[] actual) {
+          fail("Case #" + (caseNumber + 1) + " (" + suite.description(caseNumber) + ")"
+              + " failed at offset " + offset + ".");
+        }
+      });
+      try {
+        InputStream in = process.getInputStream();
+        verifier.readIteration(in);
+        ready.countDown();
+        start.await();
+        long iterationsStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) verifier.readIteration(in);
+        elapsed = System.nanoTime() - iterationsStart;
+        done.countDown();
+      } catch (EOFException e) {
+        fail("mask.sh didn't send the expected amount of output.");
+      } catch (IOException e) {
+        fail(e.toString());
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void fail(String message) {
+      System.err.println("Error: instance #" + number + ": " + message);
+      System.exit(1);
+    }
+  }
+}
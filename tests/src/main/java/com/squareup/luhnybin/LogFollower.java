@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/**
+ * Masks a growing log, like {@code tail -f}. Bytes are masked and flushed as they're appended.
+ *
+ * <p>Handles both kinds of rotation. If the file is renamed away and a new one created in its
+ * place, the old file is read to its end before the new one is followed from its start; until a
+ * new one appears, the follower waits for it. If the file is truncated in place, it's followed
+ * from its new start. Either way, digits at the end of the old contents don't run into digits at
+ * the start of the new.
+ *
+ * <p>A follower starts at the beginning of the file. With a checkpoint file, it periodically
+ * saves the file's identity, its inode and a checksum of its first bytes, along with how far it
+ * has read and the masker's held back digits and window state. A restarted follower resumes from
+ * there without rescanning the file, and still masks a card # that was half read when it stopped.
+ * Output up to the checkpoint has been flushed before the checkpoint is saved, so a restart after
+ * a crash may repeat output written since the last checkpoint but never skips any.
+ *
+ * <p>Truncation is noticed when the file is shorter than the read position. A file truncated and
+ * refilled past that position between polls looks like it grew.
+ */
+final class LogFollower {
+
+  /** How long to wait for the file to grow. */
+  static final long DEFAULT_POLL_MILLIS = 200;
+
+  /** How often to save a checkpoint while the file grows. */
+  static final long DEFAULT_CHECKPOINT_MILLIS = 1000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int CHECKPOINT_VERSION = 1;
+
+  /**
+   * Leading bytes checksummed to tell files apart. Inode numbers alone aren't enough: a file
+   * deleted and recreated often gets the same one.
+   */
+  private static final int HEAD_SIZE = 1024;
+
+  private final Path path;
+  private final File checkpoint;
+  private final CardRules rules;
+  private final LuhnMasker masker;
+  private final long pollMillis;
+  private final long checkpointMillis;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  private FileChannel channel;
+  private Object fileKey;
+  private long position;
+  private long lastCheckpoint;
+  private long checkpointedPosition = -1;
+  private volatile boolean stopped;
+
+  /**
+   * @param checkpoint where to save and resume progress, or null
+   */
+  LogFollower(File file, File checkpoint, CardRules rules, OutputStream out, long pollMillis,
+      long checkpointMillis) {
+    this.path = file.toPath();
+    this.checkpoint = checkpoint;
+    this.rules = rules;
+    this.masker = new LuhnMasker(out, rules, FlushPolicy.LOW_LATENCY);
+    this.pollMillis = pollMillis;
+    this.checkpointMillis = checkpointMillis;
+  }
+
+  LogFollower(File file, File checkpoint, CardRules rules, OutputStream out) {
+    this(file, checkpoint, rules, out, DEFAULT_POLL_MILLIS, DEFAULT_CHECKPOINT_MILLIS);
+  }
+
+  /** Adds the masker's engine counts to stats. */
+  void recordStatsTo(MaskerStats stats) {
+    masker.recordStatsTo(stats);
+  }
+
+  /** Follows the file until {@link #stop} is called, then saves a final checkpoint. */
+  void follow() throws IOException, InterruptedException {
+    open();
+    if (channel == null) return;
+    try {
+      while (!stopped) {
+        // The masker flushes after every read, so output is caught up too. Checkpoints are
+        // saved while catching up as well, so a crash never costs more than checkpointMillis.
+        boolean read = readAvailable();
+        if (System.currentTimeMillis() - lastCheckpoint >= checkpointMillis) saveCheckpoint();
+        if (!read && !checkRotation()) Thread.sleep(pollMillis);
+      }
+      masker.flush();
+      saveCheckpoint();
+    } finally {
+      if (channel != null) channel.close();
+    }
+  }
+
+  /** Makes {@link #follow} return once it has caught up. Safe to call from any thread. */
+  void stop() {
+    stopped = true;
+  }
+
+  /** Opens the file, resuming from the checkpoint if it matches. */
+  private void open() throws IOException, InterruptedException {
+    while (!stopped && !openFile()) Thread.sleep(pollMillis);
+    if (channel == null) return;
+
+    if (checkpoint != null && checkpoint.exists() && !resume()) {
+      System.err.println("The checkpoint in " + checkpoint + " is for an older file."
+          + " Starting from the beginning of " + path + ".");
+    }
+  }
+
+  /** Opens the file at the path. Returns false if there isn't one. */
+  private boolean openFile() throws IOException {
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+    fileKey = fileKey();
+    position = 0;
+    return true;
+  }
+
+  /** Returns something that identifies the file at the path, or null if there's none. */
+  private Object fileKey() throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      Object key = attributes.fileKey();
+      // Without inodes, the creation time is the best we can do.
+      return key != null ? key.toString() : attributes.creationTime().toString();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /** Reads and masks one buffer's worth. Returns false if there was nothing to read. */
+  private boolean readAvailable() throws IOException {
+    buffer.clear();
+    int read = channel.read(buffer, position);
+    if (read <= 0) return false;
+    masker.write(buffer.array(), 0, read);
+    position += read;
+    return true;
+  }
+
+  /**
+   * Switches files if the log was rotated, once the old one has been read to its end. Returns
+   * true if it switched or read more of the old file.
+   */
+  private boolean checkRotation() throws IOException, InterruptedException {
+    Object key = fileKey();
+    if (key == null || !key.equals(fileKey)) {
+      // Renamed away or deleted. Catch up with the old file before switching.
+      if (readAvailable()) return true;
+      masker.finish();
+      FileChannel old = channel;
+      while (!stopped && !openFile()) Thread.sleep(pollMillis);
+      // If stopped first, the last checkpoint is for the end of the old file.
+      if (channel == old) return true;
+      old.close();
+      checkpointedPosition = -1;
+      saveCheckpoint();
+      return true;
+    }
+    if (channel.size() < position) {
+      // Truncated in place.
+      masker.finish();
+      position = 0;
+      checkpointedPosition = -1;
+      saveCheckpoint();
+      return true;
+    }
+    return false;
+  }
+
+  private boolean resume() throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+        Files.readAllBytes(checkpoint.toPath())));
+    try {
+      if (in.readInt() != CHECKPOINT_VERSION) throw new IOException("Unknown version.");
+      String key = in.readUTF();
+      int headLength = in.readUnsignedShort();
+      long headChecksum = in.readLong();
+      long offset = in.readLong();
+      String checkpointRules = in.readUTF();
+      if (!checkpointRules.equals(rules.toString())) {
+        throw new IOException("Written with different card rules: " + checkpointRules);
+      }
+      if (!key.equals(fileKey) || offset > channel.size()
+          || headChecksum(headLength) != headChecksum) {
+        return false;
+      }
+      masker.readState(in);
+      position = offset;
+      checkpointedPosition = offset;
+      return true;
+    } catch (IOException e) {
+      throw new IOException("Can't resume from " + checkpoint + ": " + e.getMessage(), e);
+    }
+  }
+
+  /** Returns the CRC32 of the file's first length bytes, or -1 if it's shorter. */
+  private long headChecksum(int length) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(length);
+    while (head.hasRemaining()) {
+      if (channel.read(head, head.position()) <= 0) return -1;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(head.array(), 0, length);
+    return crc.getValue();
+  }
+
+  /** Saves progress. Everything but the held back digits must have been flushed already. */
+  private void saveCheckpoint() throws IOException {
+    lastCheckpoint = System.currentTimeMillis();
+    if (checkpoint == null || position == checkpointedPosition) return;
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(CHECKPOINT_VERSION);
+    out.writeUTF(fileKey.toString());
+    int headLength = (int) Math.min(HEAD_SIZE, position);
+    out.writeShort(headLength);
+    out.writeLong(headChecksum(headLength));
+    out.writeLong(position);
+    out.writeUTF(rules.toString());
+    masker.writeState(out);
+    out.flush();
+
+    // Write a new file and rename it over the old one, so a crash leaves one or the other.
+    Path temporary = new File(checkpoint.getPath() + ".tmp").toPath();
+    Files.write(temporary, bytes.toByteArray());
+    try {
+      Files.move(temporary, checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    checkpointedPosition = position;
+  }
+}
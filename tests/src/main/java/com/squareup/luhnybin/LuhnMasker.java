@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Streaming Luhn filter. Replaces every digit that belongs to a sequence passing the Luhn check
+ * with the mask character. By default, sequences have 14, 15 or 16 digits, which may be separated
+ * by spaces and hyphens, and are masked with {@code X}; {@link CardRules} can change all of that
+ * and restrict the issuer prefixes that count.
+ *
+ * <p>Input is masked in one pass. Bytes that can't be part of a card # are forwarded as soon as
+ * they're seen. Digits are held back until as many digits as the longest card # have followed
+ * them or the run of digits and separators ends, so the masker only ever holds the last few
+ * digits and the separators between them. If the separators between pending digits would
+ * overflow the holdback buffer, the run is cut at that point; this keeps memory bounded no matter
+ * how long a line gets.
+ *
+ * <p>Bytes the masker is done with are buffered until the caller flushes or the buffer fills,
+ * unless a {@link FlushPolicy} says otherwise.
+ *
+ * <p>If given {@link MatchEvents}, the masker publishes an event for each window of digits that
+ * passes, as soon as it's found. Overlapping windows are separate events. Publishing never
+ * blocks.
+ *
+ * <p>If given {@link MaskerStats}, the masker adds its counts there each time it writes out its
+ * buffer. Between times they're plain fields.
+ *
+ * <p>Not thread safe.
+ */
+final class LuhnMasker {
+
+  /** Maximum number of bytes held back while digits are pending. A power of two. */
+  static final int HOLDBACK_CAPACITY = 4096;
+
+  private static final byte DIGIT = CardRules.DIGIT;
+  private static final byte SEPARATOR = CardRules.SEPARATOR;
+
+  /** Sum of the digits of 2 * i. */
+  private static final int[] DOUBLED = { 0, 2, 4, 6, 8, 1, 3, 5, 7, 9 };
+
+  /** A digit's contribution to a Luhn sum: WEIGHTED[d] as is, WEIGHTED[10 + d] doubled. */
+  private static final int[] WEIGHTED = new int[20];
+
+  /** i mod 10 for the sum of two values mod 10. */
+  private static final int[] MOD_10 = new int[19];
+
+  static {
+    for (int d = 0; d < 10; d++) {
+      WEIGHTED[d] = d;
+      WEIGHTED[10 + d] = DOUBLED[d];
+    }
+    for (int i = 0; i < MOD_10.length; i++) MOD_10[i] = i % 10;
+  }
+
+  /** Prefix sums kept per run. A power of two greater than {@link CardRules#LONGEST}. */
+  private static final int PREFIX_RING = 32;
+
+  private final OutputStream out;
+
+  /** Compiled from the rules. */
+  private final byte[] classes;
+  private final int minLength;
+  private final int maxLength;
+  private final byte mask;
+  private final BitSet allowedStarts;
+  private final int prefixDepth;
+  private final int prefixModulus;
+
+  private final boolean lowLatency;
+  private final byte[] buffer;
+  private int count;
+
+  /**
+   * Wrap the last two arrays passed to write() for the digit scanner, so a caller alternating
+   * between two buffers doesn't allocate.
+   */
+  private ByteBuffer input = ByteBuffer.wrap(new byte[0]);
+  private ByteBuffer previousInput = input;
+
+  /** Ring of held back bytes. Starts with the oldest pending digit. */
+  private final byte[] held = new byte[HOLDBACK_CAPACITY];
+  private int heldStart;
+  private int heldSize;
+
+  /**
+   * Luhn sums mod 10 of the first k digits of the run, at 2 * (k mod 32) + p. With p = 0, digits
+   * at even positions in the run count as is and odd ones doubled; p = 1 is the reverse. A
+   * window ending at the newest digit counts that digit as is, so its sum is the difference of
+   * two prefix sums with p = the newest digit's parity, and it passes if they're equal.
+   */
+  private final int[] prefixSums = new int[2 * PREFIX_RING];
+
+  /**
+   * With a prefix allowlist, the prefixDepth-digit number starting at each of the last 32 digits
+   * of the run, and the last prefixDepth digits as a number.
+   */
+  private final int[] starts = new int[PREFIX_RING];
+  private int lastDigits;
+
+  /**
+   * With match events, the stream offset and value of each of the last 32 digits of the run, at
+   * its position in the run mod 32.
+   */
+  private final long[] digitOffsets = new long[PREFIX_RING];
+  private final byte[] digitValues = new byte[PREFIX_RING];
+
+  /** Number of digits in the current run. */
+  private long runLength;
+
+  /** Number of held back digits. */
+  private int pending;
+
+  /** Bit i is set if the ith most recent digit must be masked. */
+  private int maskBits;
+
+  /** Bytes written to out so far, not counting the buffer. */
+  private long flushed;
+
+  private MatchEvents matches;
+
+  private MaskerStats stats;
+
+  /** Counts not yet added to stats. */
+  private long bytesScanned;
+  private long digitRuns;
+  private long candidateWindows;
+  private long luhnChecks;
+  private long windowMatches;
+  private long digitsMasked;
+  private int maxHeld;
+
+  LuhnMasker(OutputStream out) {
+    this(out, CardRules.DEFAULT);
+  }
+
+  LuhnMasker(OutputStream out, CardRules rules) {
+    this(out, rules, FlushPolicy.ADAPTIVE);
+  }
+
+  LuhnMasker(OutputStream out, CardRules rules, FlushPolicy flush) {
+    this.out = out;
+    this.classes = rules.classes;
+    this.minLength = rules.minLength;
+    this.maxLength = rules.maxLength;
+    this.mask = rules.mask;
+    this.allowedStarts = rules.allowedStarts;
+    this.prefixDepth = rules.prefixDepth;
+    this.prefixModulus = CardRules.pow10(rules.prefixDepth);
+    this.lowLatency = flush == FlushPolicy.LOW_LATENCY;
+    this.buffer = new byte[flush.bufferSize];
+  }
+
+  /** Publishes an event to matches for every window that passes from now on. */
+  void publishMatchesTo(MatchEvents matches) {
+    this.matches = matches;
+  }
+
+  /** Adds this masker's engine counts to stats from now on. */
+  void recordStatsTo(MaskerStats stats) {
+    this.stats = stats;
+  }
+
+  /** Masks len bytes from b starting at off. */
+  void write(byte[] b, int off, int len) throws IOException {
+    scan(b, off, len);
+    if (lowLatency) {
+      emitMasked();
+      flush();
+    }
+  }
+
+  private void scan(byte[] b, int off, int len) throws IOException {
+    bytesScanned += len;
+    if (input.array() != b) {
+      ByteBuffer other = previousInput;
+      previousInput = input;
+      input = other.array() == b ? other : ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      if (runLength == 0) {
+        // Not in a run, so everything up to the next digit passes through as is.
+        int next = DigitScanner.INSTANCE.nextDigit(input, i, end);
+        if (next > i) {
+          writeThrough(b, i, next - i);
+          i = next;
+          if (i == end) return;
+        }
+      }
+
+      byte c = b[i++];
+      switch (classes[c & 0xff]) {
+        case DIGIT:
+          digit(c);
+          break;
+        case SEPARATOR:
+          separator(c);
+          break;
+        default:
+          endRun();
+          put(c);
+      }
+    }
+  }
+
+  /** Writes out everything that can no longer be masked. Pending digits stay held back. */
+  void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /** Ends the input. Writes out pending digits and flushes. Doesn't close the stream. */
+  void finish() throws IOException {
+    endRun();
+    flush();
+  }
+
+  /**
+   * Saves the pending digits and everything needed to mask them, so that a new masker given
+   * {@link #readState} can carry on from the same input position. Call {@link #flush} first.
+   * Doesn't save the digit offsets behind match events.
+   */
+  void writeState(DataOutput out) throws IOException {
+    if (count != 0) throw new IllegalStateException("Flush first.");
+    out.writeShort(heldSize);
+    for (int i = 0; i < heldSize; i++) {
+      out.writeByte(held[(heldStart + i) & (HOLDBACK_CAPACITY - 1)]);
+    }
+    out.writeLong(runLength);
+    out.writeInt(pending);
+    out.writeInt(maskBits);
+    out.writeInt(lastDigits);
+    for (int sum : prefixSums) out.writeByte(sum);
+    for (int start : starts) out.writeInt(start);
+  }
+
+  /** Restores state saved by {@link #writeState}, replacing this masker's own. */
+  void readState(DataInput in) throws IOException {
+    int size = in.readUnsignedShort();
+    if (size > HOLDBACK_CAPACITY) throw new IOException("Corrupt masker state.");
+    heldStart = 0;
+    heldSize = size;
+    in.readFully(held, 0, size);
+    runLength = in.readLong();
+    pending = in.readInt();
+    maskBits = in.readInt();
+    lastDigits = in.readInt();
+    for (int i = 0; i < prefixSums.length; i++) prefixSums[i] = in.readByte();
+    for (int i = 0; i < starts.length; i++) starts[i] = in.readInt();
+    if (runLength < 0 || pending < 0 || pending > maxLength || pending > size) {
+      throw new IOException("Corrupt masker state.");
+    }
+  }
+
+
+  private void digit(byte c) throws IOException {
+    if (heldSize == HOLDBACK_CAPACITY) endRun();
+
+    if (matches != null) {
+      int index = (int) runLength & (PREFIX_RING - 1);
+      digitOffsets[index] = flushed + count + heldSize;
+      digitValues[index] = (byte) (c - '0');
+    }
+    hold(c);
+    if (runLength == 0) digitRuns++;
+    int value = c - '0';
+    int parity = (int) runLength & 1;
+    int previous = prefixIndex(runLength);
+    int next = prefixIndex(runLength + 1);
+    prefixSums[next] = MOD_10[prefixSums[previous] + WEIGHTED[parity * 10 + value]];
+    prefixSums[next + 1] = MOD_10[prefixSums[previous + 1] + WEIGHTED[(parity ^ 1) * 10 + value]];
+    if (allowedStarts != null) {
+      lastDigits = (lastDigits * 10 + value) % prefixModulus;
+      long start = runLength + 1 - prefixDepth;
+      if (start >= 0) starts[(int) start & (PREFIX_RING - 1)] = lastDigits;
+    }
+    runLength++;
+    pending++;
+    maskBits <<= 1;
+
+    if (runLength >= minLength) checkWindows();
+
+    // The oldest digit can't be part of a later match.
+    if (pending == maxLength) emitOldest();
+  }
+
+  private void separator(byte c) throws IOException {
+    if (pending == 0) {
+      put(c);
+    } else if (heldSize == HOLDBACK_CAPACITY) {
+      endRun();
+      put(c);
+    } else {
+      hold(c);
+    }
+  }
+
+  /**
+   * Checks every window length ending at the newest digit, each in constant time without
+   * branches. A longer match's mask bits include a shorter one's, so they're combined with OR.
+   */
+  private void checkWindows() {
+    int parity = (int) (runLength - 1) & 1;
+    int sum = prefixSums[prefixIndex(runLength) + parity];
+    int longest = (int) Math.min(maxLength, runLength);
+    candidateWindows++;
+    luhnChecks += longest - minLength + 1;
+    if (allowedStarts != null) {
+      checkAllowedWindows(sum, parity, longest);
+      return;
+    }
+    int bits = 0;
+    int found = 0;
+    for (int length = minLength; length <= longest; length++) {
+      int match = equal(sum, prefixSums[prefixIndex(runLength - length) + parity]);
+      bits |= lowBits(length) & match;
+      found -= match;
+    }
+    maskBits |= bits;
+    windowMatches += found;
+    if (found != 0 && matches != null) publishWindows(sum, parity, longest);
+  }
+
+  /** Publishes an event for each window ending at the newest digit that passes. */
+  private void publishWindows(int sum, int parity, int longest) {
+    for (int length = minLength; length <= longest; length++) {
+      if (sum == prefixSums[prefixIndex(runLength - length) + parity]) publish(length);
+    }
+  }
+
+  /** Like {@link #checkWindows}, but drops windows that don't start with an allowed prefix. */
+  private void checkAllowedWindows(int sum, int parity, int longest) {
+    for (int length = minLength; length <= longest; length++) {
+      if (sum == prefixSums[prefixIndex(runLength - length) + parity]
+          && allowedStarts.get(starts[(int) (runLength - length) & (PREFIX_RING - 1)])) {
+        maskBits |= lowBits(length);
+        windowMatches++;
+        if (matches != null) publish(length);
+      }
+    }
+  }
+
+  /** Returns an int with the low n bits set, for 0 < n <= 32. */
+  private static int lowBits(int n) {
+    return -1 >>> -n;
+  }
+
+  private static int prefixIndex(long digitCount) {
+    return (int) (digitCount & (PREFIX_RING - 1)) << 1;
+  }
+
+  /** Returns -1 if a and b, both less than 16, are equal, and 0 otherwise. */
+  private static int equal(int a, int b) {
+    return ((a ^ b) - 1) >> 31;
+  }
+
+  /** Writes out the oldest pending digit and the separators that follow it. */
+  private void emitOldest() throws IOException {
+    byte c = take();
+    boolean masked = (maskBits & (1 << (pending - 1))) != 0;
+    if (masked) digitsMasked++;
+    put(masked ? mask : c);
+    pending--;
+    while (heldSize > 0 && classes[held[heldStart] & 0xff] != DIGIT) put(take());
+  }
+
+  /** Writes out pending digits up to the first that isn't masked yet. Masks are never undone. */
+  private void emitMasked() throws IOException {
+    while (pending > 0 && (maskBits & (1 << (pending - 1))) != 0) emitOldest();
+  }
+
+  /**
+   * Publishes the window of length digits ending at the newest digit. Each window is checked
+   * once, so it's published once.
+   */
+  private void publish(int length) {
+    long start = runLength - length;
+    int prefix = 0;
+    for (int i = 0; i < MatchEvents.PREFIX_DIGITS; i++) {
+      prefix = prefix * 10 + digitValues[(int) (start + i) & (PREFIX_RING - 1)];
+    }
+    matches.publish(digitOffsets[(int) start & (PREFIX_RING - 1)], length, prefix);
+  }
+
+  /** Writes out all pending digits and starts over. */
+  private void endRun() throws IOException {
+    while (pending > 0) emitOldest();
+    runLength = 0;
+    prefixSums[0] = 0;
+    prefixSums[1] = 0;
+    lastDigits = 0;
+    maskBits = 0;
+  }
+
+  private void hold(byte c) {
+    held[(heldStart + heldSize) & (HOLDBACK_CAPACITY - 1)] = c;
+    heldSize++;
+    if (heldSize > maxHeld) maxHeld = heldSize;
+  }
+
+  private byte take() {
+    byte c = held[heldStart];
+    heldStart = (heldStart + 1) & (HOLDBACK_CAPACITY - 1);
+    heldSize--;
+    return c;
+  }
+
+  private void put(byte c) throws IOException {
+    if (count == buffer.length) flushBuffer();
+    buffer[count++] = c;
+  }
+
+  private void writeThrough(byte[] b, int off, int len) throws IOException {
+    if (len >= buffer.length) {
+      flushBuffer();
+      out.write(b, off, len);
+      flushed += len;
+      return;
+    }
+    if (len > buffer.length - count) flushBuffer();
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (stats != null) recordStats();
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      flushed += count;
+      count = 0;
+    }
+  }
+
+  private void recordStats() {
+    stats.record(bytesScanned, digitRuns, candidateWindows, luhnChecks, windowMatches,
+        digitsMasked, maxHeld);
+    bytesScanned = 0;
+    digitRuns = 0;
+    candidateWindows = 0;
+    luhnChecks = 0;
+    windowMatches = 0;
+    digitsMasked = 0;
+  }
+}
@@ -26,39 +26,54 @@ import java.util.Random;
  */
 public class LuhnyBinTests extends TestSuite {
 
-  private static final char MASK = 'X';
-
-  private static final int MIN_LENGTH = 14;
-  private static final int MAX_LENGTH = 16;
+  private static final int MIN_LENGTH = CardRules.DEFAULT.minLength;
+  private static final int MAX_LENGTH = CardRules.DEFAULT.maxLength;
 
   private static final Random random = new Random(0xDEADBEEF);
 
+  private final CardRules rules;
+
   LuhnyBinTests() {
+    this(CardRules.DEFAULT);
+  }
+
+  /** Generates tests for rules. Cases that only make sense for some rules are left out. */
+  LuhnyBinTests(CardRules rules) {
+    this.rules = rules;
+    int min = rules.minLength;
+    int max = rules.maxLength;
+    boolean anyPrefix = rules.allowedStarts == null;
+    // The original challenge's rules, which some literal cases assume.
+    boolean standard = min == MIN_LENGTH && max == MAX_LENGTH && anyPrefix
+        && rules.isSeparator(' ');
+
     test("line feed preservation").sendAndExpect("LF only ->\n<- LF only");
 
-    for (int i = MIN_LENGTH; i <= MAX_LENGTH; i++) {
+    for (int i = min; i <= max; i++) {
       test("valid " + i + "-digit #")
-          .send(randomNumber(i))
+          .send(validNumber(i))
           .expect(mask(i));
     }
 
-    for (int i = MIN_LENGTH; i <= MAX_LENGTH; i++) {
-      test("non-matching " + i + "-digit #").sendAndExpect(nonMatchingSequence(i));
+    for (int i = min; i <= max; i++) {
+      test("non-matching " + i + "-digit #").sendAndExpect(nonMatchingSequence(i, min, max));
     }
 
-    test("not enough digits").sendAndExpect(nonMatchingSequence(MIN_LENGTH - 1));
+    test("not enough digits").sendAndExpect(nonMatchingSequence(min - 1, min, max));
 
-    String tooMany = nonMatchingSequence(MAX_LENGTH);
-    tooMany += computeLast(tooMany);
-    test("too many digits").sendAndExpect(tooMany);
+    test("too many digits").sendAndExpect(tooManyDigits());
 
-    test("14-digit # prefixed with 0s")
-        .send("00" + randomNumber(14))
-        .expect(mask(16));
+    if (anyPrefix && min + 2 <= max) {
+      test(min + "-digit # prefixed with 0s")
+          .send("00" + validNumber(min))
+          .expect(mask(min + 2));
+    }
 
-    test("14-digit # embedded in a 16-digit #")
-        .send(nestedNumber())
-        .expect(mask(16));
+    if (min + 2 <= max) {
+      test(min + "-digit # embedded in a " + max + "-digit #")
+          .send(nestedNumber(min, max))
+          .expect(mask(max));
+    }
 
     // 1111111111111abc
 
@@ -78,68 +93,176 @@ public class LuhnyBinTests extends TestSuite {
     // B: 0-9
     // c: 0-9
 
-    test("16-digit # flanked by non-matching digits")
-        .send("9875610591081018250321")
-        .expect("987XXXXXXXXXXXXXXXX321");
+    if (standard) {
+      test("16-digit # flanked by non-matching digits")
+          .send("9875610591081018250321")
+          .expect("987XXXXXXXXXXXXXXXX321".replace('X', (char) rules.mask));
+    }
 
-    testFormatted(' ');
-    testFormatted('-');
+    for (int i = 0; i < rules.separators.length(); i++) testFormatted(rules.separators.charAt(i));
 
+    String number = validNumber(max);
+    String masked = mask(max);
+    if (!rules.separators.isEmpty()) {
+      number = formatNumber(number, rules.separators.charAt(0));
+      masked = formatMask(max, rules.separators.charAt(0));
+    }
     test("exception message containing a card #")
-        .send("java.lang.FakeException: " + formattedNumber(' ') + " is a card #.")
-        .expect("java.lang.FakeException: " + formattedMask(' ') + " is a card #.");
+        .send("java.lang.FakeException: " + number + " is a card #.")
+        .expect("java.lang.FakeException: " + masked + " is a card #.");
 
-    test("non-matching message").sendAndExpect("4111 1111 1111 111 doesn't have enough digits.");
+    testMultiByteText();
 
-    test("non-matching message").sendAndExpect("56613959932535089 has too many digits.");
+    if (standard) {
+      test("non-matching message")
+          .sendAndExpect("4111 1111 1111 111 doesn't have enough digits.");
 
-    test("sequence of zeros")
-        .send(repeatingSequence('0', 1000))
-        .expect(mask(1000));
+      test("non-matching message").sendAndExpect("56613959932535089 has too many digits.");
+    } else {
+      test("non-matching message")
+          .sendAndExpect(nonMatchingSequence(min - 1, min, max) + " doesn't have enough digits.");
+
+      test("non-matching message").sendAndExpect(tooManyDigits() + " has too many digits.");
+    }
 
-    testOverlappingMatches();
+    if (anyPrefix) {
+      test("sequence of zeros")
+          .send(repeatingSequence('0', 1000))
+          .expect(mask(1000));
 
-    test("long sequence of digits with no matches").sendAndExpect(nonMatchingSequence(1000));
+      testOverlappingMatches();
+    } else {
+      test("valid # with a disallowed prefix").sendAndExpect(disallowedNumber());
+    }
+
+    test("long sequence of digits with no matches")
+        .sendAndExpect(nonMatchingSequence(1000, min, max));
+  }
+
+  /**
+   * Log text is UTF-8. Digits, spaces and hyphens never occur inside a multi-byte sequence, so
+   * the masker can work on bytes, and everything else must pass through untouched.
+   */
+  private void testMultiByteText() {
+    int max = rules.maxLength;
+
+    // "Karte:" in full-width punctuation, then "received" in Chinese and a check mark.
+    String number = validNumber(max);
+    test("card # next to multi-byte characters")
+        .send("Karte\uff1a" + number + "\uff0c\u5df2\u6536\u5230 \u2713")
+        .expect("Karte\uff1a" + mask(max) + "\uff0c\u5df2\u6536\u5230 \u2713");
+
+    // "Card ... declined" in Hebrew.
+    if (!rules.separators.isEmpty()) {
+      char separator = rules.separators.charAt(rules.separators.length() - 1);
+      String card = "\u05db\u05e8\u05d8\u05d9\u05e1 ";
+      String declined = " \u05e0\u05d3\u05d7\u05d4";
+      test("formatted card # in right-to-left text")
+          .send(card + formatNumber(validNumber(max), separator) + declined)
+          .expect(card + formatMask(max, separator) + declined);
+    }
+
+    // Arabic-Indic digits and a 4-byte emoji aren't ASCII digits or separators.
+    test("non-ASCII digits and emoji").sendAndExpect("na\u00efve caf\u00e9 \ud83d\ude42 "
+        + "\u0664\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661\u0661");
+
+    test("card # split by a no-break space")
+        .sendAndExpect(formatNumber(validNumber(max), '\u00a0'));
   }
 
   private void testFormatted(char delimeter) {
-    test("16-digit # delimited with '" + delimeter + "'")
-        .send(formattedNumber(delimeter))
-        .expect(formattedMask(delimeter));
+    int max = rules.maxLength;
+    test(max + "-digit # delimited with '" + delimeter + "'")
+        .send(formatNumber(validNumber(max), delimeter))
+        .expect(formatMask(max, delimeter));
   }
 
-  private static String formattedNumber(char delimeter) {
+  static String formattedNumber(char delimeter) {
     return formatNumber(randomNumber(16), delimeter);
   }
 
+  /** Splits number into groups of four digits. */
   static String formatNumber(String number, char delimeter) {
-    if (number.length() != 16) throw new IllegalArgumentException("Expected length of 16.");
     StringBuilder formatted = new StringBuilder();
-    for (int i = 0; i < 4; i++) {
-      formatted.append(number.substring(i * 4, (i * 4) + 4));
-      if (i < 3) formatted.append(delimeter);
+    for (int i = 0; i < number.length(); i += 4) {
+      if (i > 0) formatted.append(delimeter);
+      formatted.append(number.substring(i, Math.min(i + 4, number.length())));
     }
     return formatted.toString();
   }
 
-  private static String formattedMask(char delimeter) {
-    StringBuilder mask = new StringBuilder();
-    for (int i = 0; i < 4; i++) {
-      mask.append(repeatingSequence(MASK, 4));
-      if (i < 3) mask.append(delimeter);
+  /** Masks length digits, formatted like {@link #formatNumber}. */
+  private String formatMask(int length, char delimeter) {
+    return formatNumber(mask(length), delimeter);
+  }
+
+  /** Generates a valid card # that the rules allow. */
+  private String validNumber(int digits) {
+    StringBuilder number = new StringBuilder(digits);
+    number.append(rules.someAllowedStart(random));
+    int start = number.length();
+    number.setLength(digits);
+    setRandomDigits(random, number, start, digits - 1);
+    number.setCharAt(digits - 1, computeLast(number.subSequence(0, digits - 1)));
+    return number.toString();
+  }
+
+  /** Generates a # longer than the longest allowed with no card # inside. */
+  private String tooManyDigits() {
+    while (true) {
+      String tooMany = nonMatchingSequence(rules.maxLength, rules.minLength, rules.maxLength);
+      tooMany += computeLast(tooMany);
+      if (!hasMatch(tooMany)) return tooMany;
     }
-    return mask.toString();
+  }
+
+  /** Generates a valid # that starts with a prefix the rules don't allow, with no match inside. */
+  private String disallowedNumber() {
+    while (true) {
+      StringBuilder number = new StringBuilder(rules.maxLength);
+      number.setLength(rules.maxLength);
+      setRandomDigits(random, number, 0, rules.maxLength - 1);
+      number.setCharAt(rules.maxLength - 1,
+          computeLast(number.subSequence(0, rules.maxLength - 1)));
+      if (!hasMatch(number)) return number.toString();
+    }
+  }
+
+  /** Returns true if the rules match any part of digits. Checks every window by brute force. */
+  boolean hasMatch(CharSequence digits) {
+    for (int length = rules.minLength; length <= rules.maxLength; length++) {
+      for (int start = 0; start + length <= digits.length(); start++) {
+        CharSequence window = digits.subSequence(start, start + length);
+        if (rules.allowsStart(window)
+            && computeLast(window.subSequence(0, length - 1)) == window.charAt(length - 1)) {
+          return true;
+        }
+      }
+    }
+    return false;
   }
 
   /** Generates a sequence of digits with the specified length and no card #s. */
-  private String nonMatchingSequence(int length) {
+  static String nonMatchingSequence(int length) {
+    return nonMatchingSequence(length, MIN_LENGTH, MAX_LENGTH);
+  }
+
+  /**
+   * Generates a sequence of digits with the specified length and no sub-sequences of minLength
+   * to maxLength digits that pass the Luhn check.
+   */
+  static String nonMatchingSequence(int length, int minLength, int maxLength) {
+    return nonMatchingSequence(random, length, minLength, maxLength);
+  }
+
+  static String nonMatchingSequence(Random random, int length, int minLength, int maxLength) {
     StringBuilder builder = new StringBuilder();
     DigitSet excluded = new DigitSet();
     for (int lastIndex = 0; lastIndex < length; lastIndex++) {
       excluded.clear();
 
       // Compute digits that would result in valid card #s.
-      for (int subLength = MIN_LENGTH; subLength <= MAX_LENGTH; subLength++) {
+      for (int subLength = minLength; subLength <= maxLength; subLength++) {
         int start = lastIndex - (subLength - 1);
         if (start < 0) break;
         excluded.add(computeLast(builder.subSequence(start, lastIndex)));
@@ -148,7 +271,7 @@ public class LuhnyBinTests extends TestSuite {
       // Find a digit that doesn't result in a valid card #.
       char digit;
       do {
-        digit = randomDigit();
+        digit = randomDigit(random);
       } while (excluded.contains(digit));
       builder.append(digit);
     }
@@ -157,53 +280,91 @@ public class LuhnyBinTests extends TestSuite {
   }
 
   private void testOverlappingMatches() {
-    StringBuilder output = new StringBuilder(randomNumber(MAX_LENGTH));
-    for (int i = 0; i < 1000 - MAX_LENGTH; i++) {
-      output.append(computeLast(output.subSequence(i + 1, i + MAX_LENGTH)));
-    }
-
+    String output = overlappingSequence(1000, rules.maxLength);
     test("long sequence of overlapping, valid #s")
-        .send(output.toString())
+        .send(output)
         .expect(mask(output.length()));
   }
 
+  /** Generates a sequence of digits where every 16-digit window is a valid card #. */
+  static String overlappingSequence(int length) {
+    return overlappingSequence(length, MAX_LENGTH);
+  }
+
+  /** Generates a sequence of digits where every window of windowLength is a valid card #. */
+  static String overlappingSequence(int length, int windowLength) {
+    return overlappingSequence(random, length, windowLength);
+  }
+
+  static String overlappingSequence(Random random, int length, int windowLength) {
+    StringBuilder output = new StringBuilder(randomNumber(random, windowLength));
+    for (int i = 0; i < length - windowLength; i++) {
+      output.append(computeLast(output.subSequence(i + 1, i + windowLength)));
+    }
+    return output.toString();
+  }
+
   /** Creates a 16-digit card # with a 14-digit number embedded inside. */
-  private static String nestedNumber() {
+  static String nestedNumber() {
+    return nestedNumber(random);
+  }
+
+  static String nestedNumber(Random random) {
     StringBuilder number = new StringBuilder(16);
     number.setLength(16);
-    setRandomDigits(number, 0, 14);
+    setRandomDigits(random, number, 0, 14);
     number.setCharAt(14, computeLast(number.subSequence(1, 14)));
     number.setCharAt(15, computeLast(number.subSequence(0, 15)));
     return number.toString();
   }
 
+  /**
+   * Creates a valid, allowed outer-digit card # whose digits 1 through inner also form a valid
+   * number. outer must be at least inner + 2.
+   */
+  private String nestedNumber(int inner, int outer) {
+    StringBuilder number = new StringBuilder(outer);
+    number.append(rules.someAllowedStart(random));
+    int start = number.length();
+    number.setLength(outer);
+    setRandomDigits(random, number, start, inner);
+    number.setCharAt(inner, computeLast(number.subSequence(1, inner)));
+    setRandomDigits(random, number, inner + 1, outer - 1);
+    number.setCharAt(outer - 1, computeLast(number.subSequence(0, outer - 1)));
+    return number.toString();
+  }
+
   /** Computes a random, valid card # with the specified number of digits. */
-  private static String randomNumber(int digits) {
+  static String randomNumber(int digits) {
+    return randomNumber(random, digits);
+  }
+
+  static String randomNumber(Random random, int digits) {
     StringBuilder number = new StringBuilder(digits);
     number.setLength(digits);
-    setRandomDigits(number, 0, digits - 1);
+    setRandomDigits(random, number, 0, digits - 1);
     number.setCharAt(digits - 1, computeLast(number.subSequence(0, digits - 1)));
     return number.toString();
   }
 
   /** Creates a sequence of mask characters with the given length. */
-  private static String mask(int length) {
-    return repeatingSequence(MASK, length);
+  private String mask(int length) {
+    return repeatingSequence((char) rules.mask, length);
   }
 
   /** Creates a sequence of c with the given length. */
-  private static String repeatingSequence(char c, int length) {
+  static String repeatingSequence(char c, int length) {
     char[] mask = new char[length];
     Arrays.fill(mask, c);
     return new String(mask);
   }
 
-  private static void setRandomDigits(StringBuilder builder, int start, int end) {
-    for (int i = start; i < end; i++) builder.setCharAt(i, randomDigit());
+  private static void setRandomDigits(Random random, StringBuilder builder, int start, int end) {
+    for (int i = start; i < end; i++) builder.setCharAt(i, randomDigit(random));
   }
 
   /** Generates a random digit. */
-  private static char randomDigit() {
+  private static char randomDigit(Random random) {
     return (char) ('0' + random.nextInt(10));
   }
 
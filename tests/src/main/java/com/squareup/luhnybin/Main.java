@@ -16,148 +16,739 @@
 package com.squareup.luhnybin;
 
 import com.google.common.io.ByteStreams;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.ServiceLoader;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 
 /**
- * Runs the test suite against mask.sh.
+ * Runs the test suite against mask.sh, or against a {@link Masker} in-process.
  *
  * @author Bob Lee (bob@squareup.com)
  */
 public class Main extends TestSuite {
 
+  /** Longest test input shown in full when a test fails. */
+  private static final int MAX_SHOWN = 1024;
+
   private static int testsPassed = 0;
 
+  /** Rules for generated tests. mask.sh gets the same rules file. */
+  private static CardRules rules = CardRules.DEFAULT;
+  private static String[] maskShArgs = {};
+
   public static void main(String[] args) throws IOException {
-    if (!new File("mask.sh").exists()) {
-      System.err.println("Couldn't find 'mask.sh' in the current directory.");
+    Options options = null;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
       System.exit(1);
     }
 
-    final int iterations;
-    if (args.length > 0) {
-      if (args.length > 1) {
-        System.err.println("Usage: ./run.sh [iterations]");
+    if (options.rules != null) {
+      try {
+        rules = CardRules.read(options.rules);
+      } catch (IOException e) {
+        System.err.println("Error: " + e.getMessage());
+        System.exit(1);
+      } catch (IllegalArgumentException e) {
+        System.err.println("Error in " + options.rules + ": " + e.getMessage());
         System.exit(1);
       }
+      maskShArgs = new String[] { "--rules", options.rules.getPath() };
+      System.out.println("Card rules: " + rules + ".");
+    }
 
-      iterations = Integer.parseInt(args[0]);
-      if (iterations < 1) {
-        System.err.println("Iterations must be >= 1.");
+    Report baseline = null;
+    if (options.baseline != null) {
+      try {
+        baseline = Report.read(options.baseline);
+      } catch (IOException e) {
+        System.err.println("Error: " + e.getMessage());
         System.exit(1);
       }
-    } else {
-      iterations = 1;
     }
 
-    final Executor executor = Executors.newCachedThreadPool(new ThreadFactory() {
-      public Thread newThread(Runnable r) {
-        Thread thread = new Thread(r);
-        thread.setDaemon(true);
-        return thread;
+    if (options.scaling) {
+      checkMaskSh();
+      boolean passed = false;
+      try {
+        passed = new ScalingTest(rules).run();
+      } catch (IOException e) {
+        System.err.println("Error: " + e.getMessage());
       }
-    });
+      System.exit(passed ? 0 : 1);
+    } else if (options.daemon != null) {
+      Jdk17.run("DaemonLoadTest", suite(options), options.daemon, options.connections,
+          options.iterations);
+    } else if (options.concurrency > 0) {
+      checkMaskSh();
+      new LoadTest(suite(options), options.concurrency, options.iterations).run();
+    } else if (options.pipeline > 0) {
+      runPipelined(options, baseline);
+    } else if (options.coldStart) {
+      runColdStart(options, baseline);
+    } else if (options.inProcess) {
+      runInProcess(options, baseline);
+    } else if (options.fuzz > 0) {
+      runFuzz(options);
+    } else if (options.holdback) {
+      runHoldback();
+    } else if (options.splits) {
+      runSplits(options);
+    } else {
+      runProcess(options, baseline);
+    }
+  }
+
+  /**
+   * Runs the test suite or a corpus through mask.sh. A corpus written by {@link CorpusGenerator}
+   * is memory mapped and verified in fixed-size chunks, so it never has to fit on the heap. In
+   * latency mode, tests are written and flushed one at a time and each test's round trip is
+   * recorded.
+   */
+  private static void runProcess(Options options, Report baseline) throws IOException {
+    boolean latency = options.latency;
+    checkMaskSh();
+    Executor executor = newExecutor();
 
-    System.out.println("Running tests against mask.sh...");
+    final Suite suite = suite(options);
+    final LuhnyBinTests luhnyBinTests =
+        suite instanceof LuhnyBinTests ? (LuhnyBinTests) suite : null;
+    if (luhnyBinTests != null) {
+      System.out.println("Running tests against mask.sh...");
+    } else {
+      System.out.printf("Running %,d cases (%,d bytes) from %s against mask.sh...%n",
+          suite.caseCount(), suite.length(), options.corpus);
+    }
     System.out.println();
 
-    final LuhnyBinTests luhnyBinTests = new LuhnyBinTests();
-    final Process process = new ProcessBuilder("sh", "mask.sh").start();
+    final Process process = startMaskSh(executor);
 
-    // Copy error stream from child process.
-    executor.execute(new Runnable() {
-      public void run() {
-        try {
-          ByteStreams.copy(process.getErrorStream(), System.err);
-        } catch (IOException e) { /* ignore */ }
+    // Buffer output for efficiency. The buffer has a fixed size, however large the suite.
+    final OutputStream out
+        = new BufferedOutputStream(process.getOutputStream(), StreamingVerifier.CHUNK_SIZE);
+    final LatencyRecorder latencies = latency ? new LatencyRecorder(luhnyBinTests.count) : null;
+    final InputStream in = latency
+        ? latencies.wrap(process.getInputStream())
+        : process.getInputStream();
+    StreamingVerifier verifier = latency
+        ? luhnyBinTests.verifier(latencyListener(latencies, listener(luhnyBinTests, process)))
+        : verifier(suite, process);
+    final byte[] chunk = new byte[StreamingVerifier.CHUNK_SIZE];
+    Task writeIteration = new Task() {
+      public void run() throws IOException {
+        if (latencies != null) {
+          luhnyBinTests.writeTo(out, latencies);
+        } else {
+          suite.writeTo(out, chunk);
+        }
+        out.flush();
       }
-    });
-
-    // Buffer output for maximum efficiency.
-    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    luhnyBinTests.writeTo(bout);
+    };
 
-    final OutputStream out = process.getOutputStream();
-    final InputStream in = process.getInputStream();
+    long[] times = new long[options.iterations];
     long start = System.nanoTime();
     try {
-      // Time/iteration in ms.
-      long[] times = new long[iterations];
-
-      for (int i = 0; i < iterations; i++) {
+      for (int i = -options.warmup; i < options.iterations; i++) {
+        if (i == 0 && latency) {
+          latencies.caseLatency.reset();
+          latencies.firstByte.reset();
+        }
         long iterationStart = System.nanoTime();
+        if (latency) latencies.startIteration();
 
         // Write in the background. Writing can block if the buffer fills up.
-        executor.execute(new Runnable() {
-          public void run() {
-            try {
-              bout.writeTo(out);
-              out.flush();
-            } catch (IOException e) {
-              e.printStackTrace();
-              System.exit(1);
-            }
-          }
-        });
-        
-        luhnyBinTests.check(in, new TestCase.Listener() {
-          public void testPassed(TestCase test) {
-            System.out.print('.');
-            if (++testsPassed % 80 == 0) System.out.println();
-          }
+        inBackground(executor, writeIteration);
+
+        verifier.readIteration(in);
+        if (i >= 0) times[i] = (System.nanoTime() - iterationStart) / 1000;
+        // A corpus has too many cases to show each one.
+        if (luhnyBinTests == null) printPassed();
+      }
+    } catch (EOFException e) {
+      exitShort(process);
+    }
+    out.close();
+
+    printResults(start, times);
+    String mode = luhnyBinTests == null ? "corpus" : latency ? "latency" : "mask.sh";
+    Report report =
+        Report.create(mode, options.warmup, suite.length(), suite.caseCount(), times);
+    if (latency) {
+      printLatencies("Line latency:", latencies.caseLatency);
+      printLatencies("First byte:", latencies.firstByte);
+      report.lineP99Micros = latencies.caseLatency.percentile(99) / 1e3;
+    }
+    int status = report(options, report, baseline);
+    process.destroy();
+    System.exit(status);
+  }
+
+  /**
+   * Streams the test suite or corpus through mask.sh continuously, with up to options.pipeline
+   * iterations written but not yet verified. The writer only flushes when it has to wait for the
+   * verifier, so mask.sh sees one unbroken stream. Iteration times are the gaps between
+   * successive verified iterations, which gives steady-state throughput.
+   */
+  private static void runPipelined(Options options, Report baseline) throws IOException {
+    checkMaskSh();
+    Executor executor = newExecutor();
+
+    final Suite suite = suite(options);
+    final Process process = startMaskSh(executor);
+    StreamingVerifier verifier = verifier(suite, process);
+    if (options.corpus != null) {
+      System.out.printf("Streaming %,d cases (%,d bytes) from %s through mask.sh...%n",
+          suite.caseCount(), suite.length(), options.corpus);
+    } else {
+      System.out.println("Streaming tests through mask.sh...");
+    }
+    System.out.printf("Up to %,d iterations in flight.%n", options.pipeline);
+    System.out.println();
 
-          public void testFailed(TestCase test, String actualInput) {
-            System.out.println('X');
-            System.out.println();
-            System.err.println("Test #" + test.index + " of " + luhnyBinTests.count + " failed:"
-                + "\n  Description:     " + test.description
-                + "\n  Input:           " + showBreaks(test.output)
-                + "\n  Expected result: " + showBreaks(test.expectedInput)
-                + "\n  Actual result:   " + showBreaks(actualInput)
-                + "\n");
-            process.destroy();
-            System.exit(1);
+    final int total = options.warmup + options.iterations;
+    final Semaphore inFlight = new Semaphore(options.pipeline);
+    final OutputStream out
+        = new BufferedOutputStream(process.getOutputStream(), StreamingVerifier.CHUNK_SIZE);
+    inBackground(executor, new Task() {
+      public void run() throws IOException {
+        byte[] chunk = new byte[StreamingVerifier.CHUNK_SIZE];
+        for (int i = 0; i < total; i++) {
+          if (!inFlight.tryAcquire()) {
+            // Make sure mask.sh has everything the verifier is waiting for.
+            out.flush();
+            inFlight.acquireUninterruptibly();
           }
-        });
-        times[i] = (System.nanoTime() - iterationStart) / 1000;
+          suite.writeTo(out, chunk);
+        }
+        out.close();
       }
+    });
 
-      out.close();
+    InputStream in = process.getInputStream();
+    long[] times = new long[options.iterations];
+    long start = System.nanoTime();
+    long last = start;
+    try {
+      for (int i = -options.warmup; i < options.iterations; i++) {
+        verifier.readIteration(in);
+        inFlight.release();
+        long now = System.nanoTime();
+        if (i >= 0) times[i] = (now - last) / 1000;
+        last = now;
+      }
+    } catch (EOFException e) {
+      exitShort(process);
+    }
 
-      long elapsed = (System.nanoTime() - start) / 1000000;
+    printResults(start, times);
+    String mode = options.corpus != null ? "corpus pipeline" : "pipeline";
+    int status = report(options,
+        Report.create(mode, options.warmup, suite.length(), suite.caseCount(), times), baseline);
+    process.destroy();
+    System.exit(status);
+  }
+
+  /**
+   * Runs the test suite through a new mask.sh for each iteration and closes its input at the end,
+   * the way a short batch job would. Reports the time from starting the process to its first
+   * output byte and to its exit, and the throughput once output has started.
+   */
+  private static void runColdStart(Options options, Report baseline) throws IOException {
+    checkMaskSh();
+    final Executor executor = newExecutor();
+
+    System.out.println("Running tests against a new mask.sh per iteration...");
+    System.out.println();
+
+    final LuhnyBinTests luhnyBinTests = new LuhnyBinTests(rules);
+    LatencyHistogram firstByte = new LatencyHistogram();
+    LatencyHistogram wallTime = new LatencyHistogram();
+    long[] times = new long[options.iterations];
+    long streamingNanos = 0;
+    long start = System.nanoTime();
+    for (int i = -options.warmup; i < options.iterations; i++) {
+      long processStart = System.nanoTime();
+      final Process process = startMaskSh(executor);
+      final OutputStream out
+          = new BufferedOutputStream(process.getOutputStream(), StreamingVerifier.CHUNK_SIZE);
+      inBackground(executor, new Task() {
+        public void run() throws IOException {
+          luhnyBinTests.writeTo(out);
+          out.close();
+        }
+      });
+
+      final long[] firstByteAt = new long[1];
+      InputStream in = new FilterInputStream(process.getInputStream()) {
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+          int read = super.read(b, off, len);
+          if (read > 0 && firstByteAt[0] == 0) firstByteAt[0] = System.nanoTime();
+          return read;
+        }
+      };
+      int status;
+      try {
+        luhnyBinTests.verifier(listener(luhnyBinTests, process)).readIteration(in);
+        if (in.read() != -1) {
+          System.err.println("Error: mask.sh sent more output than expected.");
+          process.destroy();
+          System.exit(1);
+        }
+        status = process.waitFor();
+      } catch (EOFException e) {
+        exitShort(process);
+        return;
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      long end = System.nanoTime();
+      if (status != 0) {
+        System.err.println("Error: mask.sh exited with status " + status + ".");
+        System.exit(1);
+      }
+
+      if (i >= 0) {
+        firstByte.record(firstByteAt[0] - processStart);
+        wallTime.record(end - processStart);
+        times[i] = (end - processStart) / 1000;
+        streamingNanos += end - firstByteAt[0];
+      }
+    }
+
+    printResults(start, times);
+    printLatencies("First byte:", firstByte);
+    printLatencies("Wall time:", wallTime);
+    System.out.printf("Streaming:    %,.1f MB/s after the first byte%n",
+        (double) luhnyBinTests.length() * options.iterations / (1 << 20) / (streamingNanos / 1e9));
+    Report report = Report.create("cold-start", options.warmup, luhnyBinTests.length(),
+        luhnyBinTests.caseCount(), times);
+    report.firstByteP99Micros = firstByte.percentile(99) / 1e3;
+    System.exit(report(options, report, baseline));
+  }
+
+  /**
+   * Runs the test suite against the {@link Masker} found by {@link ServiceLoader}, without
+   * forking a process. Reports how much the masker allocates per input byte and how often the
+   * garbage collector runs.
+   */
+  private static void runInProcess(Options options, Report baseline) throws IOException {
+    int iterations = options.iterations;
+    Masker masker = loadMasker();
+
+    System.out.println("Running tests against " + masker.getClass().getName() + "...");
+    System.out.println();
 
-      System.out.println();
-      if (testsPassed % 80 != 0) System.out.println();
-      System.out.println("Tests passed!");
-      System.out.println();
-      System.out.printf("Total time:   %,dms%n", elapsed);
+    final LuhnyBinTests luhnyBinTests = new LuhnyBinTests(rules);
+    final TestCase.Listener listener = listener(luhnyBinTests, null);
 
-      if (iterations > 1) {
-        long sum = 0;
-        for (long time : times) sum += time;
+    // Print progress between iterations so it doesn't count as allocation.
+    final int[] passed = new int[1];
+    StreamingVerifier verifier = luhnyBinTests.verifier(new TestCase.Listener() {
+      public void testPassed(TestCase test) {
+        passed[0]++;
+      }
+
+      public void testFailed(TestCase test, int offset, String actualInput) {
+        listener.testFailed(test, offset, actualInput);
+      }
+    });
+    OutputStream out = masker.open(verifier);
+
+    com.sun.management.ThreadMXBean threads
+        = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
 
-        Arrays.sort(times);
-        System.out.printf("Mean time:    %,dus%n", sum / times.length);
-        System.out.printf("Median time:  %,dus%n", times[times.length / 2]);
-        System.out.printf("Fastest time: %,dus%n", times[0]);
+    long inputLength = verifier.iterationLength();
+    long[] times = new long[iterations];
+    long[] allocated = new long[iterations];
+    long[] collections = new long[iterations];
+    long start = System.nanoTime();
+    for (int i = -options.warmup; i < iterations; i++) {
+      if (i < 0) {
+        luhnyBinTests.writeTo(out);
+        out.flush();
+        continue;
       }
+      long collectionsBefore = collectionCount();
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long iterationStart = System.nanoTime();
 
-      System.out.println();
-      process.destroy();
+      luhnyBinTests.writeTo(out);
+      out.flush();
+
+      times[i] = (System.nanoTime() - iterationStart) / 1000;
+      allocated[i] = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      collections[i] = collectionCount() - collectionsBefore;
+
+      for (; passed[0] > 0; passed[0]--) printPassed();
+      checkIterations(masker, verifier, options.warmup + i + 1);
+    }
+    out.close();
+
+    printResults(start, times);
+
+    long totalAllocated = 0;
+    long totalCollections = 0;
+    for (int i = 0; i < iterations; i++) {
+      totalAllocated += allocated[i];
+      totalCollections += collections[i];
+    }
+    Arrays.sort(allocated);
+    System.out.printf("Allocation:   %,.3f bytes/input byte (median %,.3f)%n",
+        (double) totalAllocated / (inputLength * iterations),
+        (double) allocated[iterations / 2] / inputLength);
+    System.out.printf("GCs:          %,d (%,.3f/iteration)%n",
+        totalCollections, (double) totalCollections / iterations);
+    System.exit(report(options,
+        Report.create("in-process", options.warmup, inputLength, luhnyBinTests.caseCount(), times),
+        baseline));
+  }
+
+  /**
+   * Fuzzes the {@link Masker} found by {@link ServiceLoader} against {@link ReferenceMasker} on
+   * every core, and prints a shrunk reproducer for the first input they disagree on.
+   */
+  private static void runFuzz(Options options) {
+    Masker masker = loadMasker();
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = options.seed != null ? options.seed : new Random().nextLong();
+    System.out.printf("Fuzzing %s against the reference masker on %d threads for %ds"
+        + " (--seed %d)...%n", masker.getClass().getName(), threads, options.fuzz, seed);
+    System.out.println();
+
+    Fuzzer fuzzer = new Fuzzer(masker, rules, new LuhnyBinTests(rules));
+    long start = System.nanoTime();
+    Fuzzer.Failure failure = fuzzer.run(threads, seed, options.fuzz * 1000000000L);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Checked %,d inputs (%,.0f/s, %,.1f MB/s).%n", fuzzer.inputs(),
+        fuzzer.inputs() / seconds, fuzzer.bytes() / seconds / (1 << 20));
+    if (failure == null) {
+      System.out.println("No differences found.");
       System.exit(0);
-    } catch (EOFException e) {
-      System.err.println("Error: mask.sh didn't send the expected amount of output.");
-      process.destroy();
+    }
+
+    System.out.println();
+    System.out.printf("The masker disagrees with the reference on this %d-byte input,"
+        + " written %s:%n", failure.input.length, failure.writes.length == 1
+            ? "all at once" : "in pieces of " + Arrays.toString(failure.writes));
+    System.out.println();
+    System.out.println("  Input:    " + Fuzzer.escape(failure.input));
+    System.out.println("  Expected: " + Fuzzer.escape(failure.expected));
+    if (failure.actual != null) {
+      System.out.println("  Actual:   " + Fuzzer.escape(failure.actual));
+    } else {
+      System.out.print("  Threw:    ");
+      failure.thrown.printStackTrace(System.out);
+    }
+    System.out.println();
+    System.exit(1);
+  }
+
+  /**
+   * Sends the suite through the {@link Masker} found by {@link ServiceLoader} one byte at a time
+   * and fails if it holds back more than one card-length window. See {@link HoldbackCheck}.
+   */
+  private static void runHoldback() throws IOException {
+    Masker masker = loadMasker();
+    System.out.println("Sending tests to " + masker.getClass().getName()
+        + " one byte at a time...");
+    System.out.println();
+
+    HoldbackCheck check = new HoldbackCheck(masker, rules, new LuhnyBinTests(rules));
+    String problem = check.run();
+    if (problem != null) {
+      System.out.println(problem);
       System.exit(1);
     }
+    System.out.printf("Output never trailed input by more than one card-length window. At most"
+        + " %d bytes were held back.%n", check.maxHeld());
+    System.exit(0);
+  }
+
+  /**
+   * Sends the suite through the {@link Masker} found by {@link ServiceLoader} in writes of random
+   * length, so a masker that drops state between writes fails. Each iteration splits the suite
+   * differently.
+   */
+  private static void runSplits(Options options) throws IOException {
+    Masker masker = loadMasker();
+    long seed = options.seed != null ? options.seed : new Random().nextLong();
+    System.out.printf("Sending tests to %s in random-sized writes (--seed %d)...%n",
+        masker.getClass().getName(), seed);
+    System.out.println();
+
+    LuhnyBinTests luhnyBinTests = new LuhnyBinTests(rules);
+    StreamingVerifier verifier = luhnyBinTests.verifier(listener(luhnyBinTests, null));
+    OutputStream out = masker.open(verifier);
+    Random random = new Random(seed);
+    long[] times = new long[options.iterations];
+    long start = System.nanoTime();
+    for (int i = 0; i < options.iterations; i++) {
+      long iterationStart = System.nanoTime();
+      luhnyBinTests.writeTo(out, random);
+      out.flush();
+      times[i] = (System.nanoTime() - iterationStart) / 1000;
+      checkIterations(masker, verifier, i + 1);
+    }
+    out.close();
+    printResults(start, times);
+    System.exit(0);
+  }
+
+  /**
+   * Returns the first {@link Masker} found by {@link ServiceLoader}. With {@code --rules}, that
+   * has to be the built-in {@link StreamingMasker}, since there's no way to hand rules to others.
+   */
+  private static Masker loadMasker() {
+    Iterator<Masker> maskers = ServiceLoader.load(Masker.class).iterator();
+    if (!maskers.hasNext()) {
+      System.err.println("Couldn't find a " + Masker.class.getName() + " implementation.");
+      System.exit(1);
+    }
+    Masker masker = maskers.next();
+    if (rules == CardRules.DEFAULT) return masker;
+    if (!(masker instanceof StreamingMasker)) {
+      System.err.println("Error: " + masker.getClass().getName() + " can't take --rules.");
+      System.exit(1);
+    }
+    return new StreamingMasker(rules);
+  }
+
+  /** Returns the corpus to replay, if there is one, or the generated tests. */
+  private static Suite suite(Options options) throws IOException {
+    return options.corpus != null ? Corpus.open(options.corpus) : new LuhnyBinTests(rules);
+  }
+
+  /** Returns a verifier for suite that prints the first failure and exits. */
+  private static StreamingVerifier verifier(Suite suite, Process process) {
+    if (suite instanceof Corpus) {
+      Corpus corpus = (Corpus) suite;
+      return new StreamingVerifier(corpus, listener(corpus, process));
+    }
+    LuhnyBinTests luhnyBinTests = (LuhnyBinTests) suite;
+    return luhnyBinTests.verifier(listener(luhnyBinTests, process));
+  }
+
+  /** Tells latencies about each test that comes back, then listener. */
+  private static TestCase.Listener latencyListener(final LatencyRecorder latencies,
+      final TestCase.Listener listener) {
+    return new TestCase.Listener() {
+      public void testPassed(TestCase test) {
+        latencies.received(test.index - 1);
+        listener.testPassed(test);
+      }
+
+      public void testFailed(TestCase test, int offset, String actualInput) {
+        listener.testFailed(test, offset, actualInput);
+      }
+    };
+  }
+
+  /** Reports that mask.sh ended its output early and exits. */
+  private static void exitShort(Process process) {
+    System.err.println("Error: mask.sh didn't send the expected amount of output.");
+    process.destroy();
+    System.exit(1);
+  }
+
+  /** Exits unless masker has written the output for the given number of iterations. */
+  private static void checkIterations(Masker masker, StreamingVerifier verifier,
+      long iterations) {
+    if (verifier.iterations() != iterations) {
+      System.err.println("Error: " + masker.getClass().getName()
+          + " didn't write the expected amount of output.");
+      System.exit(1);
+    }
+  }
+
+  /** Prints the first failing case from corpus and exits. */
+  private static StreamingVerifier.Listener listener(final Corpus corpus,
+      final Process process) {
+    return new StreamingVerifier.Listener() {
+      public void casePassed(long caseNumber) {}
+
+      public void caseFailed(long caseNumber, long offset, byte[] actual) {
+        System.out.println('X');
+        System.out.println();
+        long caseStart = corpus.caseStart(caseNumber);
+        int length = (int) Math.min(corpus.caseLength(caseNumber), 200);
+        System.err.println("Case #" + (caseNumber + 1) + " of " + corpus.caseCount + " failed"
+            + " at offset " + offset + ":"
+            + "\n  Description:     " + corpus.description(caseNumber)
+            + "\n  Input:           " + showBreaks(corpus.input(caseStart, length))
+            + "\n  Expected result: " + showBreaks(corpus.expected(caseStart, length))
+            + "\n  Actual result:   ..." + showBreaks(new String(actual, Corpus.ASCII))
+            + "\n");
+        process.destroy();
+        System.exit(1);
+      }
+    };
+  }
+
+  private static TestCase.Listener listener(final LuhnyBinTests luhnyBinTests,
+      final Process process) {
+    return new TestCase.Listener() {
+      public void testPassed(TestCase test) {
+        printPassed();
+      }
+
+      public void testFailed(TestCase test, int offset, String actualInput) {
+        // Show long cases around the first difference. Offsets are in UTF-8 bytes.
+        int length = test.expectedBytes.length;
+        int from = length > MAX_SHOWN ? Math.max(0, offset - 40) : 0;
+        int to = Math.min(length, from + MAX_SHOWN);
+        String prefix = from > 0 ? "..." : "";
+        String suffix = to < length ? "..." : "";
+        String expected = decode(test.expectedBytes, from, to);
+        String actual = decode(test.expectedBytes, from, offset) + actualInput;
+        if (actual.length() > expected.length()) actual = actual.substring(0, expected.length());
+
+        System.out.println('X');
+        System.out.println();
+        System.err.println("Test #" + test.index + " of " + luhnyBinTests.count + " failed:"
+            + "\n  Description:     " + test.description
+            + "\n  Input:           " + prefix
+            + showBreaks(decode(test.outputBytes, from, Math.min(to, test.outputBytes.length)))
+            + suffix
+            + "\n  Expected result: " + prefix + showBreaks(expected) + suffix
+            + "\n  Actual result:   " + prefix + showBreaks(actual) + suffix
+            + "\n");
+        if (process != null) process.destroy();
+        System.exit(1);
+      }
+    };
+  }
+
+  /**
+   * Prints throughput, writes the report if asked and compares it with the baseline. Returns the
+   * exit status: 1 if anything regressed beyond the tolerance.
+   */
+  private static int report(Options options, Report report, Report baseline) throws IOException {
+    System.out.printf("Throughput:   %,.1f MB/s, %,.0f lines/s%n",
+        report.megabytesPerSecond, report.linesPerSecond);
+    if (options.report != null) report.write(options.report);
+    System.out.println();
+
+    if (baseline == null) return 0;
+    List<String> regressions = report.regressions(baseline, options.tolerance / 100);
+    for (String regression : regressions) System.err.println("Regression: " + regression);
+    if (!regressions.isEmpty()) return 1;
+    System.out.printf("No regressions beyond %s%% against %s.%n%n",
+        options.tolerance, options.baseline);
+    return 0;
+  }
+
+  private static void printPassed() {
+    System.out.print('.');
+    if (++testsPassed % 80 == 0) System.out.println();
+  }
+
+  private static void printResults(long start, long[] times) {
+    long elapsed = (System.nanoTime() - start) / 1000000;
+
+    System.out.println();
+    if (testsPassed % 80 != 0) System.out.println();
+    System.out.println("Tests passed!");
+    System.out.println();
+    System.out.printf("Total time:   %,dms%n", elapsed);
+
+    if (times.length > 1) {
+      long sum = 0;
+      for (long time : times) sum += time;
+
+      Arrays.sort(times);
+      System.out.printf("Mean time:    %,dus%n", sum / times.length);
+      System.out.printf("Median time:  %,dus%n", times[times.length / 2]);
+      System.out.printf("Fastest time: %,dus%n", times[0]);
+    }
+  }
+
+  static void checkMaskSh() {
+    if (!new File("mask.sh").exists()) {
+      System.err.println("Couldn't find 'mask.sh' in the current directory.");
+      System.exit(1);
+    }
+  }
+
+  static Executor newExecutor() {
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /** Writing done on a background thread. */
+  interface Task {
+    void run() throws IOException;
+  }
+
+  /** Runs task on executor. If it fails, the run can't go on, so the process exits. */
+  static void inBackground(Executor executor, final Task task) {
+    executor.execute(new Runnable() {
+      public void run() {
+        try {
+          task.run();
+        } catch (IOException e) {
+          e.printStackTrace();
+          System.exit(1);
+        }
+      }
+    });
+  }
+
+  static Process startMaskSh(Executor executor) throws IOException {
+    List<String> command = new ArrayList<String>(Arrays.asList("sh", "mask.sh"));
+    command.addAll(Arrays.asList(maskShArgs));
+    final Process process = new ProcessBuilder(command).start();
+
+    // Copy error stream from child process.
+    executor.execute(new Runnable() {
+      public void run() {
+        try {
+          ByteStreams.copy(process.getErrorStream(), System.err);
+        } catch (IOException e) { /* ignore */ }
+      }
+    });
+    return process;
+  }
+
+  static void printLatencies(String label, LatencyHistogram histogram) {
+    System.out.printf("%-14sp50 %,.1fus, p99 %,.1fus, p99.9 %,.1fus, max %,.1fus%n", label,
+        histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+        histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+  }
+
+  private static long collectionCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static String decode(byte[] bytes, int from, int to) {
+    return new String(bytes, from, to - from, TestCase.UTF_8);
   }
 
   static String showBreaks(String s) {
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import javax.management.JMException;
+
+/**
+ * Masks card #s in standard input and writes the result to standard output. Called by mask.sh.
+ *
+ * <p>With {@code --parallel}, masks large chunks of input on every core and writes them back in
+ * order. That's for batch jobs: output comes out a chunk at a time rather than as soon as it's
+ * ready.
+ *
+ * <p>With {@code --in FILE}, masks a file through a memory mapping instead of a pipe, writing to
+ * the {@code --out} file or, without one, back into the input file.
+ *
+ * <p>With {@code --daemon SOCKET}, keeps running and masks connections to a Unix domain socket.
+ * It needs a JDK 17 build. {@code mask.sh --connect SOCKET} forwards standard input and output
+ * through such a daemon with socat or nc, without starting a JVM, so it never gets here.
+ *
+ * <p>With {@code --matches FILE}, also appends a line to FILE for each masked card #: its byte
+ * offset, its digit count and an HMAC of its first six digits, keyed with the
+ * {@code LUHNYBIN_MATCH_KEY} environment variable or, without it, a random key. Lines are written
+ * by a background thread; if it falls behind, events are dropped rather than slowing masking.
+ *
+ * <p>With {@code --gzip}, standard input and output are gzip streams. Input is inflated as it's
+ * read, and output is compressed in parallel blocks by {@link ParallelGzipOutputStream}. Works
+ * with the sequential masker, {@code --parallel} and {@code --matches}.
+ *
+ * <p>With {@code --follow FILE}, masks FILE and then whatever is appended to it, following it
+ * through rotation. {@code --checkpoint FILE} saves progress there and resumes from it after a
+ * restart. See {@link LogFollower}.
+ *
+ * <p>With {@code --stats SECONDS}, registers {@link MaskerStats} as an MBean and prints rates to
+ * standard error every SECONDS, and totals at the end of input. Works with everything but
+ * {@code --in} and {@code --connect}.
+ *
+ * <p>By default, output is flushed whenever reading more input would block. {@code --flush
+ * latency} instead flushes after every read and writes out masked digits as soon as they're
+ * masked; {@code --flush batch} never flushes before the end and writes 256 KB at a time. Both
+ * work on standard input, with or without {@code --matches}. See {@link FlushPolicy}.
+ *
+ * <p>{@code --rules FILE} works with any of these and reads {@link CardRules} from FILE.
+ */
+public class Mask {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Match events held for the writer thread before they're dropped. */
+  private static final int MATCH_EVENTS = 4096;
+
+  /** How long a follower gets to save its last checkpoint when the process is stopped. */
+  private static final int SHUTDOWN_SECONDS = 5;
+
+  private static final String USAGE = "Usage: mask.sh [--parallel | --in FILE [--out FILE]"
+      + " | --matches FILE | --follow FILE [--checkpoint FILE] | --daemon SOCKET"
+      + " | --connect SOCKET] [--gzip] [--flush latency|batch] [--stats SECONDS] [--rules FILE]";
+
+  /** When --stats started counting. */
+  private static long statsStart;
+
+  /**
+   * Flags that go with a mode, and the modes each one works with. The mode is the first remaining
+   * argument, or "" for plain standard input.
+   */
+  private enum Modifier {
+    RULES("--rules", true, null),
+    STATS("--stats", true, "--stats doesn't work with --in or --connect.",
+        "", "--parallel", "--matches", "--follow", "--daemon"),
+    FLUSH("--flush", true, "--flush only works on standard input, with or without --matches.",
+        "", "--matches"),
+    GZIP("--gzip", false, "--gzip only works on standard input, with or without --parallel or"
+        + " --matches.", "", "--parallel", "--matches");
+
+    final String flag;
+    final boolean takesValue;
+
+    /** Shown when used with any other mode, or null if it works with every mode. */
+    final String error;
+    final List<String> modes;
+
+    Modifier(String flag, boolean takesValue, String error, String... modes) {
+      this.flag = flag;
+      this.takesValue = takesValue;
+      this.error = error;
+      this.modes = Arrays.asList(modes);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> rest = new ArrayList<String>(Arrays.asList(args));
+    Map<Modifier, String> modifiers = removeModifiers(rest);
+    args = rest.toArray(new String[rest.size()]);
+
+    String mode = args.length > 0 ? args[0] : "";
+    for (Modifier modifier : modifiers.keySet()) {
+      if (modifier.error != null && !modifier.modes.contains(mode)) {
+        System.err.println(modifier.error);
+        System.exit(1);
+      }
+    }
+
+    CardRules rules = modifiers.containsKey(Modifier.RULES)
+        ? readRules(new File(modifiers.get(Modifier.RULES)))
+        : CardRules.DEFAULT;
+    MaskerStats stats = modifiers.containsKey(Modifier.STATS)
+        ? startStats(seconds(modifiers.get(Modifier.STATS)))
+        : null;
+    FlushPolicy flush = modifiers.containsKey(Modifier.FLUSH)
+        ? flushPolicy(modifiers.get(Modifier.FLUSH))
+        : FlushPolicy.ADAPTIVE;
+    boolean gzip = modifiers.containsKey(Modifier.GZIP);
+
+    if (args.length == 2 && args[0].equals("--daemon")) {
+      Jdk17.run("MaskDaemon", args[1], rules, stats);
+      return;
+    } else if (mode.equals("--connect")) {
+      // mask.sh handles --connect SOCKET itself, and only passes it on with other flags.
+      System.err.println("--connect SOCKET doesn't take other flags.");
+      System.exit(1);
+    }
+
+    if (args.length > 0 && args[0].equals("--follow")) {
+      if (args.length == 2) {
+        follow(new File(args[1]), null, rules, stats);
+        return;
+      } else if (args.length == 4 && args[2].equals("--checkpoint")) {
+        follow(new File(args[1]), new File(args[3]), rules, stats);
+        return;
+      }
+    }
+
+    if (args.length > 0 && args[0].equals("--in")) {
+      if (args.length == 2) {
+        new FileMasker(FileMasker.DEFAULT_SEGMENT_SIZE, rules).mask(new File(args[1]));
+        return;
+      } else if (args.length == 4 && args[2].equals("--out")) {
+        new FileMasker(FileMasker.DEFAULT_SEGMENT_SIZE, rules)
+            .mask(new File(args[1]), new File(args[3]));
+        return;
+      }
+    }
+
+    InputStream stdin = new FileInputStream(FileDescriptor.in);
+    InputStream in = stdin;
+    OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+    boolean parallel = args.length == 1 && args[0].equals("--parallel");
+    // Only parallel masking and gzip compression use a pool. Plain jobs don't pay to set one up.
+    ForkJoinPool pool = parallel || gzip ? new ForkJoinPool() : null;
+    ParallelGzipOutputStream gzipOut = null;
+    if (gzip) {
+      in = new GZIPInputStream(in, BUFFER_SIZE);
+      stdout = gzipOut = new ParallelGzipOutputStream(stdout, pool);
+    }
+
+    if (parallel) {
+      OutputStream out = gzip ? stdout : new BufferedOutputStream(stdout, BUFFER_SIZE);
+      ParallelMasker masker = new ParallelMasker(pool, ParallelMasker.DEFAULT_CHUNK_SIZE, rules);
+      masker.recordStatsTo(stats);
+      masker.mask(in, out);
+      out.flush();
+      if (gzipOut != null) gzipOut.finish();
+      printTotals(stats);
+      return;
+    }
+
+    File matchFile = null;
+    if (args.length == 2 && args[0].equals("--matches")) {
+      matchFile = new File(args[1]);
+    } else if (args.length > 0) {
+      exitWithUsage();
+    }
+
+    LuhnMasker masker = new LuhnMasker(stdout, rules, flush);
+    masker.recordStatsTo(stats);
+    MatchEvents matches = null;
+    Writer matchLog = null;
+    if (matchFile != null) {
+      matchLog = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(matchFile, true), TestCase.UTF_8));
+      matches = new MatchEvents(MATCH_EVENTS, matchKey());
+      matches.start(matchLogger(matchLog));
+      masker.publishMatchesTo(matches);
+    }
+
+    mask(in, stdin, masker, flush);
+    if (gzipOut != null) gzipOut.finish();
+    printTotals(stats);
+
+    if (matches != null) {
+      try {
+        matches.close();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      matchLog.close();
+      if (matches.dropped() > 0) {
+        System.err.printf("Dropped %,d match events.%n", matches.dropped());
+      }
+    }
+  }
+
+  /**
+   * Removes the modifiers from args and returns them with their values, "" for those that don't
+   * take one. A modifier missing its value is left for the usage message.
+   */
+  private static Map<Modifier, String> removeModifiers(List<String> args) {
+    Map<Modifier, String> modifiers = new EnumMap<Modifier, String>(Modifier.class);
+    for (Modifier modifier : Modifier.values()) {
+      int index = args.indexOf(modifier.flag);
+      int length = modifier.takesValue ? 2 : 1;
+      if (index == -1 || index + length > args.size()) continue;
+      modifiers.put(modifier, modifier.takesValue ? args.get(index + 1) : "");
+      args.subList(index, index + length).clear();
+    }
+    return modifiers;
+  }
+
+  private static CardRules readRules(File file) throws IOException {
+    try {
+      return CardRules.read(file);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Error in " + file + ": " + e.getMessage());
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static FlushPolicy flushPolicy(String name) {
+    if (name.equals("latency")) return FlushPolicy.LOW_LATENCY;
+    if (name.equals("batch")) return FlushPolicy.BATCH;
+    System.err.println("--flush takes latency or batch: " + name);
+    System.exit(1);
+    return null;
+  }
+
+  /** Follows file until the process is told to stop, then saves a last checkpoint. */
+  private static void follow(File file, File checkpoint, CardRules rules, MaskerStats stats)
+      throws IOException {
+    final LogFollower follower = new LogFollower(file, checkpoint, rules,
+        new FileOutputStream(FileDescriptor.out));
+    follower.recordStatsTo(stats);
+    final CountDownLatch done = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override public void run() {
+        follower.stop();
+        try {
+          done.await(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // Exit without the last checkpoint.
+        }
+      }
+    });
+    try {
+      follower.follow();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    } finally {
+      done.countDown();
+    }
+  }
+
+  /**
+   * Masks in to its end. Under {@link FlushPolicy#ADAPTIVE}, flushes whenever source, the stream
+   * in reads from, has nothing more right now. Asking in itself doesn't work for gzip:
+   * GZIPInputStream's available() stays 1 until the end, so output would never be flushed early.
+   */
+  static void mask(InputStream in, InputStream source, LuhnMasker masker, FlushPolicy flush)
+      throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      masker.write(buffer, 0, read);
+
+      // Flush when we'd otherwise block waiting for more input.
+      if (flush == FlushPolicy.ADAPTIVE && source.available() == 0) masker.flush();
+    }
+    masker.finish();
+  }
+
+  private static void exitWithUsage() {
+    System.err.println(USAGE);
+    System.exit(1);
+  }
+
+  /** Parses the value of --stats, or exits with the usage unless it's a whole number >= 1. */
+  private static int seconds(String value) {
+    try {
+      int seconds = Integer.parseInt(value);
+      if (seconds >= 1) return seconds;
+    } catch (NumberFormatException e) {
+      // Handled below, like a number that's too small.
+    }
+    System.err.println("--stats needs SECONDS >= 1: " + value);
+    exitWithUsage();
+    return 0;
+  }
+
+  private static MaskerStats startStats(int seconds) {
+    MaskerStats stats = new MaskerStats();
+    try {
+      stats.register();
+    } catch (JMException e) {
+      System.err.println("Couldn't register " + MaskerStats.OBJECT_NAME + ": " + e);
+    }
+    statsStart = System.nanoTime();
+    stats.startReporting(System.err, seconds, TimeUnit.SECONDS);
+    return stats;
+  }
+
+  /** Prints rates over the whole run. */
+  private static void printTotals(MaskerStats stats) {
+    if (stats == null) return;
+    System.err.println("Totals: " + stats.line(new long[6], stats.snapshot(),
+        (System.nanoTime() - statsStart) / 1e9));
+  }
+
+  private static byte[] matchKey() {
+    String key = System.getenv("LUHNYBIN_MATCH_KEY");
+    if (key != null) return key.getBytes(TestCase.UTF_8);
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    return random;
+  }
+
+  private static MatchEvents.Listener matchLogger(final Writer log) {
+    return new MatchEvents.Listener() {
+      public void match(long offset, int digits, String prefixHash) {
+        try {
+          log.write(offset + " " + digits + " " + prefixHash + "\n");
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+}
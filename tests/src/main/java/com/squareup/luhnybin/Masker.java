@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.OutputStream;
+
+/**
+ * A masker that runs inside the test JVM. {@code run.sh --in-process} loads the first
+ * implementation it finds with {@link java.util.ServiceLoader}, so register yours in
+ * {@code META-INF/services/com.squareup.luhnybin.Masker}.
+ */
+public interface Masker {
+
+  /**
+   * Returns a stream that masks the bytes written to it and writes the result to out. Flushing
+   * the stream writes out everything that can no longer be masked. Closing it ends the input but
+   * doesn't close out.
+   */
+  OutputStream open(OutputStream out);
+}
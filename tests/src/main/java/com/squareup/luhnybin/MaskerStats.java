@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Engine counters shared by any number of maskers, which may run on any threads. Each
+ * {@link LuhnMasker} counts in plain fields as it goes and adds its counts here only when it
+ * writes out a buffer, so the adders see a few updates per 8 KB and never contend on the hot
+ * path.
+ *
+ * <p>The counters can be read over JMX as {@value #OBJECT_NAME}, and
+ * {@link #startReporting} prints a rate line periodically. Luhn checks per KB is the one to
+ * watch: it's near zero for ordinary text and climbs when a log source turns digit-heavy.
+ */
+public final class MaskerStats implements MaskerStatsMBean {
+
+  static final String OBJECT_NAME = "com.squareup.luhnybin:type=MaskerStats";
+
+  private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+    public long applyAsLong(long a, long b) {
+      return Math.max(a, b);
+    }
+  };
+
+  private final LongAdder bytesScanned = new LongAdder();
+  private final LongAdder digitRuns = new LongAdder();
+  private final LongAdder candidateWindows = new LongAdder();
+  private final LongAdder luhnChecks = new LongAdder();
+  private final LongAdder matches = new LongAdder();
+  private final LongAdder digitsMasked = new LongAdder();
+  private final LongAccumulator maxHoldback = new LongAccumulator(MAX, 0);
+
+  /** Adds one masker's counts since it last recorded. */
+  void record(long bytes, long runs, long candidates, long checks, long matchCount,
+      long masked, int holdback) {
+    bytesScanned.add(bytes);
+    digitRuns.add(runs);
+    candidateWindows.add(candidates);
+    luhnChecks.add(checks);
+    matches.add(matchCount);
+    digitsMasked.add(masked);
+    maxHoldback.accumulate(holdback);
+  }
+
+  public long getBytesScanned() {
+    return bytesScanned.sum();
+  }
+
+  public long getDigitRuns() {
+    return digitRuns.sum();
+  }
+
+  public long getCandidateWindows() {
+    return candidateWindows.sum();
+  }
+
+  public long getLuhnChecks() {
+    return luhnChecks.sum();
+  }
+
+  public long getMatches() {
+    return matches.sum();
+  }
+
+  public long getDigitsMasked() {
+    return digitsMasked.sum();
+  }
+
+  public long getMaxHoldback() {
+    return maxHoldback.get();
+  }
+
+  /** Registers with the platform MBean server. */
+  void register() throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+  }
+
+  /** Starts a daemon thread that prints rates since the last line to out every interval. */
+  void startReporting(final PrintStream out, final long interval, final TimeUnit unit) {
+    Thread reporter = new Thread("masker stats") {
+      @Override public void run() {
+        long[] last = snapshot();
+        long lastTime = System.nanoTime();
+        while (true) {
+          try {
+            unit.sleep(interval);
+          } catch (InterruptedException e) {
+            return;
+          }
+          long[] now = snapshot();
+          long time = System.nanoTime();
+          out.println("Stats: " + line(last, now, (time - lastTime) / 1e9));
+          last = now;
+          lastTime = time;
+        }
+      }
+    };
+    reporter.setDaemon(true);
+    reporter.start();
+  }
+
+  long[] snapshot() {
+    return new long[] {
+        getBytesScanned(), getDigitRuns(), getCandidateWindows(), getLuhnChecks(), getMatches(),
+        getDigitsMasked()
+    };
+  }
+
+  /** Formats the rates between two snapshots taken seconds apart. */
+  String line(long[] from, long[] to, double seconds) {
+    long bytes = to[0] - from[0];
+    return String.format("%,.1f MB/s, %,.0f digit runs/s, %,.1f Luhn checks/KB,"
+            + " %,.0f matches/s, %,.0f digits masked/s, max holdback %,d bytes",
+        bytes / seconds / (1 << 20), (to[1] - from[1]) / seconds,
+        bytes == 0 ? 0.0 : (to[3] - from[3]) * 1024.0 / bytes, (to[4] - from[4]) / seconds,
+        (to[5] - from[5]) / seconds, getMaxHoldback());
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+/**
+ * Totals for every masker that records to a {@link MaskerStats}, since the process started. Public
+ * because JMX only exposes public interfaces.
+ */
+public interface MaskerStatsMBean {
+
+  /** Input bytes the maskers were given. */
+  long getBytesScanned();
+
+  /** Runs of digits and separators that held at least one digit. */
+  long getDigitRuns();
+
+  /** Digits at which a run was long enough for a card # to end. */
+  long getCandidateWindows();
+
+  /** Windows whose Luhn sums were compared, one per allowed length at each candidate. */
+  long getLuhnChecks();
+
+  /** Windows that passed the Luhn check and the rules. */
+  long getMatches();
+
+  /** Digits written as the mask character. */
+  long getDigitsMasked();
+
+  /** Most bytes any masker has held back at once. */
+  long getMaxHoldback();
+}
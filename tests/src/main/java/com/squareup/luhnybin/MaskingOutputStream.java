@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Masks card #s in the bytes written to it and writes the result to another stream, in the same
+ * JVM and without a pipe. Wrap the stream a log appender writes to, for example.
+ *
+ * <p>State carries across writes, so a card # split between two writes is still masked. Digits
+ * that may still be part of a card # are held back until enough digits follow them or a byte that
+ * can't be part of one arrives. {@link #flush} writes out everything else; a line feed at the end
+ * of each record means every record is complete once flushed.
+ *
+ * <p>Writes don't allocate, whatever arrays they come from. Bytes are copied through a fixed
+ * buffer of the stream's own, {@value #CHUNK_SIZE} at a time, so the engine only ever scans that
+ * one array. The copy costs far less than the masking.
+ *
+ * <p>Not thread safe.
+ */
+public class MaskingOutputStream extends OutputStream {
+
+  /** Bytes copied into the engine at a time. */
+  static final int CHUNK_SIZE = 8 * 1024;
+
+  private final OutputStream out;
+  private final LuhnMasker masker;
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+
+  /** Masks with the default rules: 14 to 16 digits, separated by spaces or hyphens. */
+  public MaskingOutputStream(OutputStream out) {
+    this(out, CardRules.DEFAULT, FlushPolicy.ADAPTIVE);
+  }
+
+  MaskingOutputStream(OutputStream out, CardRules rules, FlushPolicy flush) {
+    this.out = out;
+    this.masker = new LuhnMasker(out, rules, flush);
+  }
+
+  @Override public void write(int b) throws IOException {
+    chunk[0] = (byte) b;
+    masker.write(chunk, 0, 1);
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+    while (len > 0) {
+      int count = Math.min(len, CHUNK_SIZE);
+      System.arraycopy(b, off, chunk, 0, count);
+      masker.write(chunk, 0, count);
+      off += count;
+      len -= count;
+    }
+  }
+
+  /** Writes out everything that can no longer be masked, and flushes the underlying stream. */
+  @Override public void flush() throws IOException {
+    masker.flush();
+  }
+
+  /**
+   * Ends the input: writes out any held back digits and flushes, but leaves the underlying stream
+   * open. Bytes written afterward are masked as if they started a new stream.
+   */
+  public void finish() throws IOException {
+    masker.finish();
+  }
+
+  /** Finishes and closes the underlying stream. */
+  @Override public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+}
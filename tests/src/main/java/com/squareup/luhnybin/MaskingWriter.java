@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Masks card #s in the characters written to it and writes the result to another writer, in the
+ * same JVM and without a pipe. Behaves like {@link MaskingOutputStream}, but for text that's never
+ * encoded: state carries across writes, {@link #flush} writes out everything that can no longer be
+ * masked, and writes don't allocate.
+ *
+ * <p>Card #s are ASCII, so characters are passed to the masking engine as bytes: ASCII as is, and
+ * anything else as a byte that ends a card #. Masking never changes lengths or order, so
+ * the engine's output is turned back into characters one for one, with each stand-in replaced by
+ * the character it stood for.
+ *
+ * <p>Not thread safe.
+ */
+public class MaskingWriter extends Writer {
+
+  /** Characters passed to the engine at a time. */
+  private static final int CHUNK_SIZE = 1024;
+
+  /** Stands in for a non-ASCII character. Never part of a card #. */
+  private static final byte NON_ASCII = (byte) 0x80;
+
+  /**
+   * Non-ASCII characters end runs, so the engine never holds them back; they only wait in its
+   * output buffer. That bounds how many can be in the engine at once.
+   */
+  private static final int PENDING_CAPACITY =
+      Integer.highestOneBit(FlushPolicy.ADAPTIVE.bufferSize + CHUNK_SIZE) << 1;
+
+  private final Writer out;
+  private final LuhnMasker masker;
+  private final byte[] bytes = new byte[CHUNK_SIZE];
+
+  /** Non-ASCII characters passed to the engine and not yet written out, in order. */
+  private final char[] pending = new char[PENDING_CAPACITY];
+  private int pendingStart;
+  private int pendingSize;
+
+  /** Masks with the default rules: 14 to 16 digits, separated by spaces or hyphens. */
+  public MaskingWriter(Writer out) {
+    this(out, CardRules.DEFAULT);
+  }
+
+  MaskingWriter(Writer out, CardRules rules) {
+    this.out = out;
+    this.masker = new LuhnMasker(new Decoder(), rules, FlushPolicy.ADAPTIVE);
+  }
+
+  @Override public void write(int c) throws IOException {
+    bytes[0] = encode((char) c);
+    masker.write(bytes, 0, 1);
+  }
+
+  @Override public void write(char[] cbuf, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > cbuf.length - off) throw new IndexOutOfBoundsException();
+    while (len > 0) {
+      int count = Math.min(len, CHUNK_SIZE);
+      for (int i = 0; i < count; i++) bytes[i] = encode(cbuf[off + i]);
+      masker.write(bytes, 0, count);
+      off += count;
+      len -= count;
+    }
+  }
+
+  @Override public void write(String str, int off, int len) throws IOException {
+    append(str, off, off + len);
+  }
+
+  @Override public Writer append(CharSequence csq) throws IOException {
+    if (csq == null) csq = "null";
+    return append(csq, 0, csq.length());
+  }
+
+  @Override public Writer append(CharSequence csq, int start, int end) throws IOException {
+    if (csq == null) csq = "null";
+    if (start < 0 || start > end || end > csq.length()) throw new IndexOutOfBoundsException();
+    while (start < end) {
+      int count = Math.min(end - start, CHUNK_SIZE);
+      for (int i = 0; i < count; i++) bytes[i] = encode(csq.charAt(start + i));
+      masker.write(bytes, 0, count);
+      start += count;
+    }
+    return this;
+  }
+
+  @Override public Writer append(char c) throws IOException {
+    write(c);
+    return this;
+  }
+
+  /** Writes out everything that can no longer be masked, and flushes the underlying writer. */
+  @Override public void flush() throws IOException {
+    masker.flush();
+  }
+
+  /**
+   * Ends the input: writes out any held back digits and flushes, but leaves the underlying writer
+   * open. Characters written afterward are masked as if they started a new writer.
+   */
+  public void finish() throws IOException {
+    masker.finish();
+  }
+
+  /** Finishes and closes the underlying writer. */
+  @Override public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private byte encode(char c) {
+    if (c < 0x80) return (byte) c;
+    if (pendingSize == PENDING_CAPACITY) throw new AssertionError();
+    pending[(pendingStart + pendingSize) & (PENDING_CAPACITY - 1)] = c;
+    pendingSize++;
+    return NON_ASCII;
+  }
+
+  /** Turns the engine's output back into characters. */
+  private class Decoder extends OutputStream {
+    private final char[] chars = new char[CHUNK_SIZE];
+
+    @Override public void write(int b) throws IOException {
+      chars[0] = decode((byte) b);
+      out.write(chars, 0, 1);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int count = Math.min(len, CHUNK_SIZE);
+        for (int i = 0; i < count; i++) chars[i] = decode(b[off + i]);
+        out.write(chars, 0, count);
+        off += count;
+        len -= count;
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      out.flush();
+    }
+
+    private char decode(byte b) {
+      if (b != NON_ASCII) return (char) b;
+      char c = pending[pendingStart];
+      pendingStart = (pendingStart + 1) & (PENDING_CAPACITY - 1);
+      pendingSize--;
+      return c;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A bounded, lock-free ring of match events, one per window of digits that passes, for paging
+ * and audit. Maskers on any number of threads publish; one background thread drains the ring and
+ * hands events to a {@link Listener}. Publishing never blocks or allocates: when the ring is
+ * full, the event is dropped and counted, so slow alerting can't slow masking down.
+ *
+ * <p>Each slot carries a sequence number, as in Dmitry Vyukov's bounded queue. A producer claims
+ * a slot by advancing the tail with a CAS, fills it in and then publishes it by bumping its
+ * sequence; the consumer frees it by bumping the sequence again, a lap ahead.
+ */
+final class MatchEvents {
+
+  /** Digits of the card # that the listener sees, hashed. Enough to identify the issuer. */
+  static final int PREFIX_DIGITS = 6;
+
+  /** Prefix hashes cached by the consumer. Most card #s come from a few issuers. */
+  private static final int HASH_CACHE_SIZE = 1024;
+
+  /** How long the consumer sleeps when the ring is empty. */
+  private static final long IDLE_NANOS = 1000000;
+
+  interface Listener {
+    /**
+     * Called on the consumer thread for each match.
+     *
+     * @param offset of the match's first digit from the start of the stream
+     * @param digits length of the match in digits. A window inside or across other matches is
+     *     a match of its own.
+     * @param prefixHash hex HMAC-SHA256 of the match's first {@link #PREFIX_DIGITS} digits
+     */
+    void match(long offset, int digits, String prefixHash);
+  }
+
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final long[] offsets;
+  private final int[] digits;
+  private final int[] prefixes;
+
+  private final AtomicLong tail = new AtomicLong();
+  private long head;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Mac mac;
+  private final int[] cachedPrefixes = new int[HASH_CACHE_SIZE];
+  private final String[] cachedHashes = new String[HASH_CACHE_SIZE];
+  private volatile boolean closed;
+  private Thread consumer;
+
+  /**
+   * @param capacity the most events held at once, a power of two
+   * @param key the HMAC key for prefix hashes. Hashes from different keys can't be compared.
+   */
+  MatchEvents(int capacity, byte[] key) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two.");
+    }
+    mask = capacity - 1;
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    offsets = new long[capacity];
+    digits = new int[capacity];
+    prefixes = new int[capacity];
+    try {
+      mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+    } catch (GeneralSecurityException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Adds an event unless the ring is full. Safe to call from any thread. Returns false if the
+   * event was dropped.
+   *
+   * @param prefix the first {@link #PREFIX_DIGITS} digits as a number
+   */
+  boolean publish(long offset, int digitCount, int prefix) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long sequence = sequences.get(index);
+      if (sequence < position) {
+        // The consumer hasn't freed this slot yet.
+        dropped.incrementAndGet();
+        return false;
+      }
+      if (sequence == position && tail.compareAndSet(position, position + 1)) {
+        offsets[index] = offset;
+        digits[index] = digitCount;
+        prefixes[index] = prefix;
+        sequences.lazySet(index, position + 1);
+        return true;
+      }
+      // Another producer claimed the slot first. Try the next one.
+    }
+  }
+
+  /** Number of events dropped because the ring was full. */
+  long dropped() {
+    return dropped.get();
+  }
+
+  /** Hands every published event to listener. Only one thread may drain. Returns the count. */
+  int drain(Listener listener) {
+    int count = 0;
+    while (true) {
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) return count;
+      long offset = offsets[index];
+      int digitCount = digits[index];
+      int prefix = prefixes[index];
+      sequences.lazySet(index, head + mask + 1);
+      head++;
+      listener.match(offset, digitCount, cachedHash(prefix));
+      count++;
+    }
+  }
+
+  /** Starts a daemon thread that drains events to listener until {@link #close}. */
+  synchronized void start(final Listener listener) {
+    if (consumer != null) throw new IllegalStateException("Already started.");
+    consumer = new Thread("match events") {
+      @Override public void run() {
+        while (true) {
+          boolean last = closed;
+          if (drain(listener) == 0) {
+            if (last) return;
+            LockSupport.parkNanos(this, IDLE_NANOS);
+          }
+        }
+      }
+    };
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /** Waits for the consumer to drain events published before this call, then stops it. */
+  synchronized void close() throws InterruptedException {
+    closed = true;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+      consumer.join();
+    }
+  }
+
+  private String cachedHash(int prefix) {
+    int index = prefix & (HASH_CACHE_SIZE - 1);
+    String hash = cachedHashes[index];
+    if (hash == null || cachedPrefixes[index] != prefix) {
+      hash = hash(prefix);
+      cachedHashes[index] = hash;
+      cachedPrefixes[index] = prefix;
+    }
+    return hash;
+  }
+
+  /** Hashes prefix as ASCII digits, with leading zeros. */
+  String hash(int prefix) {
+    byte[] ascii = new byte[PREFIX_DIGITS];
+    for (int i = PREFIX_DIGITS - 1; i >= 0; i--) {
+      ascii[i] = (byte) ('0' + prefix % 10);
+      prefix /= 10;
+    }
+    byte[] digest = mac.doFinal(ascii);
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+      hex.append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.File;
+
+/**
+ * Command line options for run.sh.
+ */
+final class Options {
+
+  static final String USAGE = "Usage: ./run.sh"
+      + " [--in-process | --latency | --cold-start | --pipeline N | --concurrency N | --scaling"
+      + " | --daemon SOCKET [--connections N] | --fuzz SECONDS [--seed N] | --holdback"
+      + " | --splits [--seed N]]"
+      + " [--corpus FILE]"
+      + " [--rules FILE]"
+      + " [--warmup N] [--report FILE] [--baseline FILE [--tolerance PERCENT]] [iterations]";
+
+  /** Default allowed regression against a baseline, in percent. */
+  static final double DEFAULT_TOLERANCE = 5;
+
+  boolean inProcess;
+  boolean latency;
+  boolean coldStart;
+  int pipeline;
+  int concurrency;
+  boolean scaling;
+  String daemon;
+  int connections = 1;
+  int fuzz;
+  Long seed;
+  boolean holdback;
+  boolean splits;
+  File corpus;
+  File rules;
+  int iterations = 1;
+  int warmup;
+  File report;
+  File baseline;
+  double tolerance = DEFAULT_TOLERANCE;
+
+  /** Parses args. Throws IllegalArgumentException with a message if they don't make sense. */
+  static Options parse(String[] args) {
+    Options options = new Options();
+    boolean iterationsSet = false;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--in-process")) {
+        options.inProcess = true;
+      } else if (arg.equals("--latency")) {
+        options.latency = true;
+      } else if (arg.equals("--cold-start")) {
+        options.coldStart = true;
+      } else if (arg.equals("--scaling")) {
+        options.scaling = true;
+      } else if (arg.equals("--pipeline") && i + 1 < args.length) {
+        options.pipeline = Integer.parseInt(args[++i]);
+        if (options.pipeline < 1) throw new IllegalArgumentException("N must be >= 1.");
+      } else if (arg.equals("--concurrency") && i + 1 < args.length) {
+        options.concurrency = Integer.parseInt(args[++i]);
+        if (options.concurrency < 1) throw new IllegalArgumentException("N must be >= 1.");
+      } else if (arg.equals("--daemon") && i + 1 < args.length) {
+        options.daemon = args[++i];
+      } else if (arg.equals("--connections") && i + 1 < args.length) {
+        options.connections = Integer.parseInt(args[++i]);
+        if (options.connections < 1) throw new IllegalArgumentException("N must be >= 1.");
+      } else if (arg.equals("--fuzz") && i + 1 < args.length) {
+        options.fuzz = Integer.parseInt(args[++i]);
+        if (options.fuzz < 1) throw new IllegalArgumentException("SECONDS must be >= 1.");
+      } else if (arg.equals("--seed") && i + 1 < args.length) {
+        options.seed = Long.parseLong(args[++i]);
+      } else if (arg.equals("--holdback")) {
+        options.holdback = true;
+      } else if (arg.equals("--splits")) {
+        options.splits = true;
+      } else if (arg.equals("--warmup") && i + 1 < args.length) {
+        options.warmup = Integer.parseInt(args[++i]);
+        if (options.warmup < 0) throw new IllegalArgumentException("Warmup must be >= 0.");
+      } else if (arg.equals("--report") && i + 1 < args.length) {
+        options.report = new File(args[++i]);
+      } else if (arg.equals("--baseline") && i + 1 < args.length) {
+        options.baseline = new File(args[++i]);
+      } else if (arg.equals("--tolerance") && i + 1 < args.length) {
+        options.tolerance = Double.parseDouble(args[++i]);
+        if (options.tolerance < 0) throw new IllegalArgumentException("Tolerance must be >= 0.");
+      } else if (arg.equals("--rules") && i + 1 < args.length) {
+        options.rules = new File(args[++i]);
+      } else if (arg.equals("--corpus") && i + 1 < args.length) {
+        options.corpus = new File(args[++i]);
+      } else if (!iterationsSet && !arg.startsWith("-")) {
+        options.iterations = Integer.parseInt(arg);
+        iterationsSet = true;
+      } else {
+        throw new IllegalArgumentException(USAGE);
+      }
+    }
+
+    if (options.iterations < 1) throw new IllegalArgumentException("Iterations must be >= 1.");
+
+    int modes = (options.inProcess ? 1 : 0) + (options.latency ? 1 : 0)
+        + (options.coldStart ? 1 : 0) + (options.pipeline > 0 ? 1 : 0)
+        + (options.concurrency > 0 ? 1 : 0) + (options.scaling ? 1 : 0)
+        + (options.daemon != null ? 1 : 0) + (options.fuzz > 0 ? 1 : 0)
+        + (options.holdback ? 1 : 0) + (options.splits ? 1 : 0);
+    if (modes > 1) throw new IllegalArgumentException(USAGE);
+    if (options.corpus != null && (options.inProcess || options.latency || options.coldStart
+        || options.scaling || options.fuzz > 0 || options.holdback || options.splits)) {
+      throw new IllegalArgumentException(
+          "--corpus only works with mask.sh, --pipeline, --concurrency and --daemon.");
+    }
+    if (options.seed != null && options.fuzz == 0 && !options.splits) {
+      throw new IllegalArgumentException("--seed only works with --fuzz and --splits.");
+    }
+    if (options.connections > 1 && options.daemon == null) {
+      throw new IllegalArgumentException("--connections only works with --daemon.");
+    }
+    boolean reported = options.warmup > 0 || options.report != null || options.baseline != null;
+    if (reported && (options.concurrency > 0 || options.scaling || options.daemon != null
+        || options.fuzz > 0 || options.holdback || options.splits)) {
+      throw new IllegalArgumentException("--warmup, --report and --baseline don't work with"
+          + " --concurrency, --scaling, --daemon, --fuzz, --holdback or --splits.");
+    }
+    return options;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses to gzip on a {@link ForkJoinPool}, like pigz. Input is cut into fixed-size blocks,
+ * each block is compressed on its own into a complete gzip member, and the members are written
+ * in input order. A gzip stream may hold any number of members, and gunzip and
+ * {@link java.util.zip.GZIPInputStream} decompress them back to back. Independent blocks cost a
+ * little compression, since no block can refer back into the one before it.
+ *
+ * <p>At most a fixed number of blocks are in flight, so memory stays bounded.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+
+  static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  /** Member header: magic, deflate, no flags, no time, no extra flags, unknown OS. */
+  private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+  private static final int TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final ForkJoinPool pool;
+  private final int blockSize;
+  private final int level;
+  private final int maxInFlight;
+
+  private final ArrayDeque<Block> inFlight = new ArrayDeque<Block>();
+  private final ArrayDeque<Block> free = new ArrayDeque<Block>();
+  private Block current;
+  private boolean wroteMember;
+  private boolean finished;
+
+  /**
+   * @param level a {@link Deflater} compression level
+   */
+  ParallelGzipOutputStream(OutputStream out, ForkJoinPool pool, int blockSize, int level) {
+    this.out = out;
+    this.pool = pool;
+    this.blockSize = blockSize;
+    this.level = level;
+    this.maxInFlight = 2 * pool.getParallelism() + 1;
+  }
+
+  ParallelGzipOutputStream(OutputStream out, ForkJoinPool pool) {
+    this(out, pool, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Override public void write(int b) throws IOException {
+    block().input[current.length++] = (byte) b;
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      Block block = block();
+      int count = Math.min(len, blockSize - block.length);
+      System.arraycopy(b, off, block.input, block.length, count);
+      block.length += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /** Returns a block with room for at least one byte, submitting the current one if it's full. */
+  private Block block() throws IOException {
+    if (finished) throw new IOException("Finished.");
+    if (current != null && current.length == blockSize) submit();
+    if (current == null) {
+      current = free.isEmpty() ? new Block() : free.poll();
+      current.length = 0;
+    }
+    return current;
+  }
+
+  private void submit() throws IOException {
+    if (inFlight.size() == maxInFlight) writeOldest();
+    current.reinitialize();
+    pool.execute(current);
+    inFlight.add(current);
+    current = null;
+  }
+
+  private void writeOldest() throws IOException {
+    Block block = inFlight.poll();
+    block.join();
+    out.write(block.output, 0, block.outputLength);
+    wroteMember = true;
+    free.add(block);
+  }
+
+  /**
+   * Writes the blocks that are already compressed and flushes. The partly filled block stays
+   * buffered, so flushing never produces a short member.
+   */
+  @Override public void flush() throws IOException {
+    while (!inFlight.isEmpty() && inFlight.peek().isDone()) writeOldest();
+    out.flush();
+  }
+
+  /** Compresses and writes everything, and flushes. Doesn't close the underlying stream. */
+  void finish() throws IOException {
+    if (finished) return;
+    if (current != null && current.length > 0) submit();
+    while (!inFlight.isEmpty()) writeOldest();
+    if (!wroteMember) {
+      // An empty gzip file still needs one member.
+      current = free.isEmpty() ? new Block() : free.poll();
+      current.length = 0;
+      submit();
+      writeOldest();
+    }
+    finished = true;
+    for (Block block : free) block.deflater.end();
+    if (current != null) current.deflater.end();
+    out.flush();
+  }
+
+  @Override public void close() throws IOException {
+    finish();
+    out.close();
+  }
+
+  private final class Block extends RecursiveAction {
+    private static final long serialVersionUID = 0L;
+
+    final byte[] input = new byte[blockSize];
+    int length;
+
+    /** A whole gzip member. Deflate can grow incompressible input a little. */
+    byte[] output = new byte[blockSize + blockSize / 64 + HEADER.length + TRAILER_SIZE + 64];
+    int outputLength;
+
+    final Deflater deflater = new Deflater(level, true);
+    private final CRC32 crc = new CRC32();
+
+    /** Compresses the block into a member. Runs on the pool. */
+    @Override protected void compute() {
+      System.arraycopy(HEADER, 0, output, 0, HEADER.length);
+      outputLength = HEADER.length;
+
+      deflater.reset();
+      deflater.setInput(input, 0, length);
+      deflater.finish();
+      while (!deflater.finished()) {
+        if (outputLength == output.length) output = Arrays.copyOf(output, output.length * 2);
+        outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+      }
+
+      crc.reset();
+      crc.update(input, 0, length);
+      if (output.length - outputLength < TRAILER_SIZE) {
+        output = Arrays.copyOf(output, outputLength + TRAILER_SIZE);
+      }
+      putIntLittleEndian((int) crc.getValue());
+      putIntLittleEndian(length);
+    }
+
+    private void putIntLittleEndian(int value) {
+      for (int i = 0; i < 4; i++) output[outputLength++] = (byte) (value >>> (8 * i));
+    }
+  }
+}
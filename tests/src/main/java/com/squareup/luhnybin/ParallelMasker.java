@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Masks large inputs on a {@link ForkJoinPool} and writes the results in input order.
+ *
+ * <p>Input is read in fixed-size chunks. Any byte that can't be part of a card #, like a line
+ * feed, resets the masker, so everything from a chunk's first such byte through its last can be
+ * masked on its own. Those interiors are masked in parallel. The bytes around chunk boundaries,
+ * the tail of one chunk and the head of the next, go through a single sequential masker that
+ * carries its state from seam to seam, so a card # split across chunks is still masked. A chunk
+ * with no such byte, part of one giant run of digits and separators, goes through the sequential
+ * masker whole.
+ *
+ * <p>At most a fixed number of chunks are in flight, so memory stays bounded.
+ */
+final class ParallelMasker {
+
+  static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final CardRules rules;
+  private final int maxInFlight;
+  private MaskerStats stats;
+
+  ParallelMasker(ForkJoinPool pool, int chunkSize) {
+    this(pool, chunkSize, CardRules.DEFAULT);
+  }
+
+  ParallelMasker(ForkJoinPool pool, int chunkSize, CardRules rules) {
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    this.rules = rules;
+    this.maxInFlight = 2 * pool.getParallelism() + 1;
+  }
+
+  /** Adds every masker's engine counts to stats. */
+  void recordStatsTo(MaskerStats stats) {
+    this.stats = stats;
+  }
+
+  /** Masks everything from in and writes it to out. Doesn't close either stream. */
+  void mask(InputStream in, OutputStream out) throws IOException {
+    LuhnMasker seams = new LuhnMasker(out, rules);
+    seams.recordStatsTo(stats);
+    ArrayDeque<Chunk> inFlight = new ArrayDeque<Chunk>();
+    ArrayDeque<Chunk> free = new ArrayDeque<Chunk>();
+    boolean eof = false;
+    while (true) {
+      while (!eof && inFlight.size() < maxInFlight) {
+        Chunk chunk = free.isEmpty() ? new Chunk(chunkSize) : free.poll();
+        if (!chunk.read(in)) {
+          eof = true;
+          break;
+        }
+        chunk.reinitialize();
+        pool.execute(chunk);
+        inFlight.add(chunk);
+      }
+
+      Chunk chunk = inFlight.poll();
+      if (chunk == null) break;
+      chunk.join();
+      chunk.writeTo(seams, out);
+      free.add(chunk);
+    }
+    seams.finish();
+  }
+
+  private class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 0L;
+
+    final byte[] input;
+    final byte[] output;
+    int length;
+
+    /** Offsets of the first and last bytes that end a run, or -1 if there are none. */
+    int first;
+    int last;
+
+    Chunk(int size) {
+      input = new byte[size];
+      output = new byte[size];
+    }
+
+    /** Fills the chunk from in. Returns false if in is exhausted. */
+    boolean read(InputStream in) throws IOException {
+      length = 0;
+      while (length < input.length) {
+        int read = in.read(input, length, input.length - length);
+        if (read == -1) break;
+        length += read;
+      }
+      return length > 0;
+    }
+
+    /** Masks the interior. Runs on the pool. */
+    @Override protected void compute() {
+      first = -1;
+      last = -1;
+      for (int i = 0; i < length; i++) {
+        if (rules.endsRun(input[i])) {
+          first = i;
+          break;
+        }
+      }
+      if (first == -1) return;
+      for (int i = length - 1; i >= first; i--) {
+        if (rules.endsRun(input[i])) {
+          last = i;
+          break;
+        }
+      }
+
+      try {
+        LuhnMasker masker = new LuhnMasker(new ArrayOutputStream(output, first), rules);
+        masker.recordStatsTo(stats);
+        masker.write(input, first, last + 1 - first);
+        masker.finish();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /** Writes the masked chunk, sending the head and tail through the seam masker. */
+    void writeTo(LuhnMasker seams, OutputStream out) throws IOException {
+      if (first == -1) {
+        seams.write(input, 0, length);
+        return;
+      }
+      seams.write(input, 0, first);
+      seams.finish();
+      out.write(output, first, last + 1 - first);
+      seams.write(input, last + 1, length - last - 1);
+    }
+  }
+
+  /** Writes into a fixed array. */
+  private static class ArrayOutputStream extends OutputStream {
+    private final byte[] array;
+    private int position;
+
+    ArrayOutputStream(byte[] array, int position) {
+      this.array = array;
+      this.position = position;
+    }
+
+    @Override public void write(int b) {
+      array[position++] = (byte) b;
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+      System.arraycopy(b, off, array, position, len);
+      position += len;
+    }
+  }
+}
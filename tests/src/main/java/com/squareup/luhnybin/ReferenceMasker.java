@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+/**
+ * Masks card #s the slow, obvious way: for each run of digits and separators, checks every
+ * window of digits the rules allow against the Luhn sum directly. It's quadratic in the longest
+ * card # and allocates as it goes, but it's short enough to check by eye, so it serves as the
+ * oracle for {@link Fuzzer} and the masker tests.
+ *
+ * <p>Unlike {@link LuhnMasker}, never cuts a run that would overflow the holdback buffer, so the
+ * two only agree on inputs shorter than {@link LuhnMasker#HOLDBACK_CAPACITY}.
+ */
+final class ReferenceMasker {
+
+  private ReferenceMasker() {}
+
+  /** Returns a masked copy of input. */
+  static byte[] mask(byte[] input, CardRules rules) {
+    byte[] result = input.clone();
+    int[] digits = new int[input.length];
+    int count = 0;
+    for (int i = 0; i <= input.length; i++) {
+      int c = i < input.length ? input[i] & 0xff : -1;
+      if (c >= '0' && c <= '9') {
+        digits[count++] = i;
+        continue;
+      }
+      if (c != -1 && c < 0x80 && rules.separators.indexOf(c) != -1) continue;
+
+      // The run ended. Mask every window that passes.
+      for (int start = 0; start < count; start++) {
+        for (int length = rules.minLength;
+            length <= rules.maxLength && start + length <= count; length++) {
+          if (!passes(input, digits, start, length, rules)) continue;
+          for (int j = start; j < start + length; j++) result[digits[j]] = rules.mask;
+        }
+      }
+      count = 0;
+    }
+    return result;
+  }
+
+  private static boolean passes(byte[] input, int[] digits, int start, int length,
+      CardRules rules) {
+    int sum = 0;
+    for (int j = 0; j < length; j++) {
+      int digit = input[digits[start + length - 1 - j]] - '0';
+      sum += j % 2 == 0 ? digit : digit * 2 / 10 + digit * 2 % 10;
+    }
+    if (sum % 10 != 0) return false;
+    if (rules.allowedStarts == null) return true;
+
+    StringBuilder window = new StringBuilder(length);
+    for (int j = start; j < start + length; j++) window.append((char) input[digits[j]]);
+    return rules.allowsStart(window);
+  }
+}
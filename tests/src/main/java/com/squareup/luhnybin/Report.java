@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Results of the measured iterations of one run, written as JSON or, for files ending in .csv,
+ * as a CSV header and row. A saved report can be read back as a baseline for a later run.
+ */
+final class Report {
+
+  private static final Pattern JSON_FIELD =
+      Pattern.compile("\"(\\w+)\"\\s*:\\s*(\"[^\"]*\"|[-+0-9.eE]+|null)");
+
+  String mode;
+  int warmup;
+  int iterations;
+  long bytes;
+  long lines;
+  double megabytesPerSecond;
+  double linesPerSecond;
+  double p50Micros;
+  double p99Micros;
+
+  /** p99 line latency in latency mode, or NaN. */
+  double lineP99Micros = Double.NaN;
+
+  /** p99 time from process start to first output byte in cold-start mode, or NaN. */
+  double firstByteP99Micros = Double.NaN;
+
+  /**
+   * Builds a report from the measured iterations.
+   *
+   * @param bytes input bytes per iteration
+   * @param lines lines per iteration
+   * @param times time per iteration in microseconds
+   */
+  static Report create(String mode, int warmup, long bytes, long lines, long[] times) {
+    Report report = new Report();
+    report.mode = mode;
+    report.warmup = warmup;
+    report.iterations = times.length;
+    report.bytes = bytes;
+    report.lines = lines;
+
+    long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    long sum = 0;
+    for (long time : sorted) sum += time;
+    double seconds = sum / 1e6;
+    report.megabytesPerSecond = (double) bytes * times.length / (1 << 20) / seconds;
+    report.linesPerSecond = (double) lines * times.length / seconds;
+    report.p50Micros = percentile(sorted, 50);
+    report.p99Micros = percentile(sorted, 99);
+    return report;
+  }
+
+  /** Nearest-rank percentile of sorted values. */
+  static long percentile(long[] sorted, double percentile) {
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  /**
+   * Returns a message for each way this report is worse than baseline by more than tolerance,
+   * a fraction: lower throughput, or higher p99 iteration time, line latency or time to first
+   * byte. A baseline from a different mode is always a regression.
+   */
+  List<String> regressions(Report baseline, double tolerance) {
+    List<String> regressions = new ArrayList<String>();
+    if (!mode.equals(baseline.mode)) {
+      regressions.add("The baseline is for " + baseline.mode + ", not " + mode + ".");
+      return regressions;
+    }
+    if (megabytesPerSecond < baseline.megabytesPerSecond * (1 - tolerance)) {
+      regressions.add(String.format("Throughput dropped from %,.1f to %,.1f MB/s.",
+          baseline.megabytesPerSecond, megabytesPerSecond));
+    }
+    if (p99Micros > baseline.p99Micros * (1 + tolerance)) {
+      regressions.add(String.format("p99 iteration time rose from %,.0f to %,.0fus.",
+          baseline.p99Micros, p99Micros));
+    }
+    if (lineP99Micros > baseline.lineP99Micros * (1 + tolerance)) {
+      regressions.add(String.format("p99 line latency rose from %,.1f to %,.1fus.",
+          baseline.lineP99Micros, lineP99Micros));
+    }
+    if (firstByteP99Micros > baseline.firstByteP99Micros * (1 + tolerance)) {
+      regressions.add(String.format("p99 time to first byte rose from %,.0f to %,.0fus.",
+          baseline.firstByteP99Micros, firstByteP99Micros));
+    }
+    return regressions;
+  }
+
+  private Map<String, Object> fields() {
+    Map<String, Object> fields = new LinkedHashMap<String, Object>();
+    fields.put("mode", mode);
+    fields.put("warmup", warmup);
+    fields.put("iterations", iterations);
+    fields.put("bytes", bytes);
+    fields.put("lines", lines);
+    fields.put("megabytesPerSecond", megabytesPerSecond);
+    fields.put("linesPerSecond", linesPerSecond);
+    fields.put("p50Micros", p50Micros);
+    fields.put("p99Micros", p99Micros);
+    fields.put("lineP99Micros", Double.isNaN(lineP99Micros) ? null : lineP99Micros);
+    fields.put("firstByteP99Micros",
+        Double.isNaN(firstByteP99Micros) ? null : firstByteP99Micros);
+    return fields;
+  }
+
+  void write(File file) throws IOException {
+    Map<String, Object> fields = fields();
+    StringBuilder out = new StringBuilder();
+    if (isCsv(file)) {
+      StringBuilder values = new StringBuilder();
+      for (Map.Entry<String, Object> field : fields.entrySet()) {
+        if (out.length() > 0) {
+          out.append(',');
+          values.append(',');
+        }
+        out.append(field.getKey());
+        if (field.getValue() != null) values.append(field.getValue());
+      }
+      out.append('\n').append(values).append('\n');
+    } else {
+      out.append("{\n");
+      for (Map.Entry<String, Object> field : fields.entrySet()) {
+        if (out.length() > 2) out.append(",\n");
+        Object value = field.getValue();
+        out.append("  \"").append(field.getKey()).append("\": ")
+            .append(value instanceof String ? "\"" + value + "\"" : String.valueOf(value));
+      }
+      out.append("\n}\n");
+    }
+    Files.write(out, file, Charsets.UTF_8);
+  }
+
+  static Report read(File file) throws IOException {
+    String contents = Files.toString(file, Charsets.UTF_8);
+    Map<String, String> fields = new LinkedHashMap<String, String>();
+    if (isCsv(file)) {
+      String[] rows = contents.trim().split("\n");
+      if (rows.length != 2) throw new IOException("Expected a header and one row: " + file);
+      String[] names = rows[0].split(",", -1);
+      String[] values = rows[1].split(",", -1);
+      if (names.length != values.length) throw new IOException("Malformed CSV: " + file);
+      for (int i = 0; i < names.length; i++) fields.put(names[i].trim(), values[i].trim());
+    } else {
+      Matcher matcher = JSON_FIELD.matcher(contents);
+      while (matcher.find()) fields.put(matcher.group(1), matcher.group(2).replace("\"", ""));
+    }
+
+    try {
+      Report report = new Report();
+      report.mode = fields.get("mode");
+      if (report.mode == null) throw new IllegalArgumentException();
+      report.warmup = Integer.parseInt(fields.get("warmup"));
+      report.iterations = Integer.parseInt(fields.get("iterations"));
+      report.bytes = Long.parseLong(fields.get("bytes"));
+      report.lines = Long.parseLong(fields.get("lines"));
+      report.megabytesPerSecond = Double.parseDouble(fields.get("megabytesPerSecond"));
+      report.linesPerSecond = Double.parseDouble(fields.get("linesPerSecond"));
+      report.p50Micros = Double.parseDouble(fields.get("p50Micros"));
+      report.p99Micros = Double.parseDouble(fields.get("p99Micros"));
+      report.lineP99Micros = optional(fields.get("lineP99Micros"));
+      report.firstByteP99Micros = optional(fields.get("firstByteP99Micros"));
+      return report;
+    } catch (RuntimeException e) {
+      throw new IOException("Not a report: " + file);
+    }
+  }
+
+  /** Parses a field that's missing, empty or null when it doesn't apply. */
+  private static double optional(String value) {
+    return value == null || value.isEmpty() || value.equals("null")
+        ? Double.NaN
+        : Double.parseDouble(value);
+  }
+
+  private static boolean isCsv(File file) {
+    return file.getName().endsWith(".csv");
+  }
+}
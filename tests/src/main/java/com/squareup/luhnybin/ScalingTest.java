@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Sends mask.sh single lines of 10^4 to 10^7 bytes built to be hard on a masker, and fails if
+ * the time per line grows faster than the line. Each size is timed over about the same number of
+ * bytes, so a linear masker takes about the same time at every size.
+ *
+ * <p>Patterns use the card rules' separators and longest #. Under the default rules, every digit
+ * in every pattern belongs to a card #. The expected output comes from {@link LuhnMasker}.
+ */
+final class ScalingTest {
+
+  static final int[] SIZES = { 10000, 100000, 1000000, 10000000 };
+
+  /** Bytes sent per size. Shorter lines are repeated. */
+  private static final int BYTES_PER_SIZE = 10000000;
+
+  /** Largest exponent of the fitted time-per-line curve that passes. Linear is 1. */
+  static final double MAX_EXPONENT = 1.3;
+
+  /** Separator chain between digits. 15 chains and 16 digits fit the masker's holdback. */
+  private static final int CHAIN_LENGTH = 200;
+
+  private final CardRules rules;
+
+  ScalingTest(CardRules rules) {
+    this.rules = rules;
+  }
+
+  enum Pattern {
+    DIGITS("all digits") {
+      @Override byte[] line(int length, CardRules rules) {
+        byte[] line = new byte[length];
+        Arrays.fill(line, (byte) '0');
+        return line;
+      }
+    },
+
+    ALTERNATING("alternating digits and separators") {
+      @Override byte[] line(int length, CardRules rules) {
+        byte first = firstSeparator(rules);
+        byte last = lastSeparator(rules);
+        byte[] line = new byte[length];
+        for (int i = 0; i < length; i++) {
+          line[i] = i % 2 == 0 ? (byte) '0' : i % 4 == 1 ? first : last;
+        }
+        return line;
+      }
+    },
+
+    SEPARATOR_CHAINS("'- - - -' chains between digits") {
+      @Override byte[] line(int length, CardRules rules) {
+        byte first = firstSeparator(rules);
+        byte last = lastSeparator(rules);
+        // Longer #s get shorter chains, so a whole # still fits the holdback.
+        int chain = Math.min(CHAIN_LENGTH,
+            (LuhnMasker.HOLDBACK_CAPACITY - rules.maxLength) / (rules.maxLength - 1));
+        byte[] line = new byte[length];
+        for (int i = 0; i < length; i++) {
+          int offset = i % (chain + 1);
+          line[i] = offset == 0 ? (byte) '0' : offset % 2 == 0 ? first : last;
+        }
+        return line;
+      }
+    },
+
+    OVERLAPPING("dense overlapping valid #s") {
+      @Override byte[] line(int length, CardRules rules) {
+        return LuhnyBinTests.overlappingSequence(length, rules.maxLength)
+            .getBytes(TestCase.UTF_8);
+      }
+    };
+
+    final String description;
+
+    Pattern(String description) {
+      this.description = description;
+    }
+
+    /** Returns a line of the given length for rules, without a line feed. */
+    abstract byte[] line(int length, CardRules rules);
+
+    /** Rules without separators get a space, which ends runs instead. */
+    private static byte firstSeparator(CardRules rules) {
+      return rules.separators.isEmpty() ? (byte) ' ' : (byte) rules.separators.charAt(0);
+    }
+
+    private static byte lastSeparator(CardRules rules) {
+      String separators = rules.separators;
+      return separators.isEmpty() ? (byte) ' ' : (byte) separators.charAt(separators.length() - 1);
+    }
+  }
+
+  /** Runs the suite through mask.sh. Returns true if every pattern scales linearly. */
+  boolean run() throws IOException {
+    Executor executor = Main.newExecutor();
+    Process process = Main.startMaskSh(executor);
+    try {
+      System.out.println("Timing long lines through mask.sh...");
+      System.out.println();
+
+      // Warm up on every pattern so the first measurements don't include compilation.
+      for (Pattern pattern : Pattern.values()) {
+        time(process, executor, pattern.line(100000, rules));
+      }
+
+      System.out.printf("%-34s", "ns/byte");
+      for (int size : SIZES) {
+        System.out.printf("%10s", "10^" + (Integer.toString(size).length() - 1));
+      }
+      System.out.printf("%10s%n", "Exponent");
+
+      boolean passed = true;
+      for (Pattern pattern : Pattern.values()) {
+        double[] times = new double[SIZES.length];
+        System.out.printf("%-34s", pattern.description);
+        for (int i = 0; i < SIZES.length; i++) {
+          times[i] = time(process, executor, pattern.line(SIZES[i], rules));
+          System.out.printf("%10.2f", times[i] / SIZES[i]);
+        }
+        double exponent = exponent(SIZES, times);
+        System.out.printf("%10.2f%n", exponent);
+        if (exponent > MAX_EXPONENT) passed = false;
+      }
+      System.out.println();
+
+      if (!passed) {
+        System.out.printf("Masking time grows faster than n^%.1f for some patterns.%n",
+            MAX_EXPONENT);
+      }
+      return passed;
+    } finally {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Sends line repeatedly and verifies the output. Returns the mean nanoseconds per line, from
+   * the first byte written to the last byte read.
+   */
+  private double time(Process process, Executor executor, final byte[] line) throws IOException {
+    final int count = Math.max(1, BYTES_PER_SIZE / line.length);
+    byte[] expected = expected(line);
+    final OutputStream out =
+        new BufferedOutputStream(process.getOutputStream(), StreamingVerifier.CHUNK_SIZE);
+    long start = System.nanoTime();
+    Main.inBackground(executor, new Main.Task() {
+      public void run() throws IOException {
+        for (int i = 0; i < count; i++) {
+          out.write(line);
+          out.write('\n');
+        }
+        out.flush();
+      }
+    });
+    verify(process.getInputStream(), expected, count);
+    return (double) (System.nanoTime() - start) / count;
+  }
+
+  /** Returns line masked by rules, followed by a line feed. */
+  private byte[] expected(byte[] line) throws IOException {
+    byte[] input = Arrays.copyOf(line, line.length + 1);
+    input[line.length] = '\n';
+    ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+    LuhnMasker masker = new LuhnMasker(out, rules);
+    masker.write(input, 0, input.length);
+    masker.finish();
+    return out.toByteArray();
+  }
+
+  /** Reads count copies of expected, a masked line and its line feed. */
+  private static void verify(InputStream in, byte[] expected, int count) throws IOException {
+    byte[] buffer = new byte[StreamingVerifier.CHUNK_SIZE];
+    long remaining = (long) count * expected.length;
+    int offset = 0;
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) throw new EOFException("mask.sh didn't send the expected amount of output.");
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] != expected[offset]) {
+          throw new IOException("Line of " + (expected.length - 1) + " bytes: expected '"
+              + (char) expected[offset] + "' at offset " + offset + " but got '"
+              + (char) buffer[i] + "'.");
+        }
+        offset = offset == expected.length - 1 ? 0 : offset + 1;
+      }
+      remaining -= read;
+    }
+  }
+
+  /** Fits time = a * size^b by least squares on a log-log scale and returns b. */
+  static double exponent(int[] sizes, double[] times) {
+    int n = sizes.length;
+    double sumX = 0;
+    double sumY = 0;
+    double sumXY = 0;
+    double sumXX = 0;
+    for (int i = 0; i < n; i++) {
+      double x = Math.log(sizes[i]);
+      double y = Math.log(times[i]);
+      sumX += x;
+      sumY += y;
+      sumXY += x * y;
+      sumXX += x * x;
+    }
+    return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+  }
+}
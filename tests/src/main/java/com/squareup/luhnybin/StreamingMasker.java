@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Runs {@link LuhnMasker}, the masker behind mask.sh, in-process through a
+ * {@link MaskingOutputStream}.
+ */
+public class StreamingMasker implements Masker {
+
+  private final CardRules rules;
+
+  public StreamingMasker() {
+    this(CardRules.DEFAULT);
+  }
+
+  /** Masks by rules, for {@code run.sh --rules}. */
+  StreamingMasker(CardRules rules) {
+    this.rules = rules;
+  }
+
+  public OutputStream open(OutputStream out) {
+    return new MaskingOutputStream(out, rules, FlushPolicy.ADAPTIVE) {
+      // Maskers leave out open.
+      @Override public void close() throws IOException {
+        finish();
+      }
+    };
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Checks masked output against the expected output as it's written, a fixed-size chunk at a
+ * time. Memory use doesn't depend on the size of the cases or the number of iterations; the
+ * expected output repeats once per iteration.
+ *
+ * <p>Write masked output to the verifier directly, or have it pull output from a process with
+ * {@link #readIteration}. After the first failure, the verifier ignores further output.
+ */
+final class StreamingVerifier extends OutputStream {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  /** Bytes of actual output kept for error messages. */
+  static final int SNIPPET_SIZE = 200;
+
+  /** The expected output for one iteration, as a sequence of cases. */
+  interface Expected {
+    long caseCount();
+
+    /** Total length of all cases. */
+    long length();
+
+    long caseLength(long caseNumber);
+
+    /** Copies len expected bytes of the given case, starting at offset, into dst. */
+    void getExpected(long caseNumber, long offset, byte[] dst, int off, int len);
+  }
+
+  interface Listener {
+    void casePassed(long caseNumber);
+
+    /**
+     * Called when a case's output differs from what's expected. actual holds the output from the
+     * first differing byte on, up to {@link #SNIPPET_SIZE} bytes and the end of the case.
+     */
+    void caseFailed(long caseNumber, long offset, byte[] actual);
+  }
+
+  private final Expected expected;
+  private final Listener listener;
+  private final long caseCount;
+
+  private final byte[] expectedChunk = new byte[CHUNK_SIZE];
+  private final byte[] readChunk = new byte[CHUNK_SIZE];
+  private final byte[] single = new byte[1];
+
+  private final long iterationLength;
+
+  private long caseNumber;
+  private long caseLength;
+  private long offset;
+  private long iterationRemaining;
+  private long iterations;
+  private boolean failed;
+
+  StreamingVerifier(Expected expected, Listener listener) {
+    this.expected = expected;
+    this.listener = listener;
+    this.caseCount = expected.caseCount();
+    if (caseCount == 0) throw new IllegalArgumentException("No cases.");
+    this.iterationLength = expected.length();
+    startIteration();
+  }
+
+  /** Bytes of output expected per iteration. */
+  long iterationLength() {
+    return iterationLength;
+  }
+
+  /** Number of iterations verified so far. */
+  long iterations() {
+    return iterations;
+  }
+
+  boolean failed() {
+    return failed;
+  }
+
+  /**
+   * Reads and verifies output from in until the current iteration is complete. Never reads past
+   * the end of the iteration.
+   *
+   * @throws EOFException if in ends first
+   */
+  void readIteration(InputStream in) throws IOException {
+    long target = iterations + 1;
+    while (iterations < target && !failed) {
+      int length = (int) Math.min(readChunk.length, iterationRemaining);
+      int read = in.read(readChunk, 0, length);
+      if (read == -1) throw new EOFException();
+      write(readChunk, 0, read);
+    }
+  }
+
+  @Override public void write(int b) throws IOException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  @Override public void write(byte[] b, int off, int len) {
+    int end = off + len;
+    while (off < end && !failed) {
+      int length = (int) Math.min(Math.min(end - off, caseLength - offset), expectedChunk.length);
+      expected.getExpected(caseNumber, offset, expectedChunk, 0, length);
+      for (int i = 0; i < length; i++) {
+        if (b[off + i] != expectedChunk[i]) {
+          failed = true;
+          int start = off + i;
+          long snippet = Math.min(Math.min(SNIPPET_SIZE, end - start), caseLength - offset - i);
+          listener.caseFailed(caseNumber, offset + i,
+              Arrays.copyOfRange(b, start, start + (int) snippet));
+          return;
+        }
+      }
+      off += length;
+      offset += length;
+      iterationRemaining -= length;
+
+      // Move on to the next case, and the next iteration after the last case.
+      while (offset == caseLength && !failed) {
+        listener.casePassed(caseNumber);
+        if (++caseNumber == caseCount) {
+          iterations++;
+          startIteration();
+          break;
+        }
+        caseLength = expected.caseLength(caseNumber);
+        offset = 0;
+      }
+    }
+  }
+
+  private void startIteration() {
+    caseNumber = 0;
+    caseLength = expected.caseLength(0);
+    offset = 0;
+    iterationRemaining = iterationLength;
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Input to send to a masker along with the output expected back, either the built-in
+ * {@link TestSuite} or a {@link Corpus} on disk.
+ */
+interface Suite extends StreamingVerifier.Expected {
+
+  /**
+   * Writes one iteration of input, using chunk to encode it. Several threads may write at once
+   * as long as each has its own chunk.
+   */
+  void writeTo(OutputStream out, byte[] chunk) throws IOException;
+
+  String description(long caseNumber);
+}
@@ -15,12 +15,9 @@
  */
 package com.squareup.luhnybin;
 
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 
 /**
  * A test case.
@@ -29,50 +26,62 @@ import java.util.Arrays;
  */
 class TestCase {
 
-  private static final Charset ASCII = Charset.forName("US-ASCII");
+  static final Charset UTF_8 = Charset.forName("UTF-8");
 
   final String description;
   final int index;
-  final String output;
-  final String expectedInput;
 
-  private final byte[] outputBytes;
-  private final byte[] expectedInputBytes;
-  private final byte[] buffer;
+  /**
+   * The output and expected input with their line breaks, encoded once so writing and verifying
+   * never touch chars. Only the bytes are kept, so a case takes no more memory than its text.
+   */
+  final byte[] outputBytes;
+  final byte[] expectedBytes;
 
   TestCase(String description, int index, String output, String expectedInput) {
     this.description = description;
     this.index = index;
-    this.output = withBreak(output);
-    this.outputBytes = this.output.getBytes(ASCII);
-    this.expectedInput = withBreak(expectedInput);
-    this.expectedInputBytes = this.expectedInput.getBytes(ASCII);
-    this.buffer = new byte[expectedInputBytes.length];
+    this.outputBytes = withBreak(output).getBytes(UTF_8);
+    this.expectedBytes = withBreak(expectedInput).getBytes(UTF_8);
   }
 
   private static String withBreak(String s) {
     return s + "\n";
   }
 
-  void writeTo(OutputStream out) throws IOException {
-    out.write(outputBytes);
+  /** Decodes the output, with its line break. */
+  String output() {
+    return new String(outputBytes, UTF_8);
   }
 
-  void check(InputStream in, Listener listener) throws IOException {
-    int read = 0;
-    while (read < buffer.length) {
-      int result = in.read(buffer, read, buffer.length - read);
-      if (result == -1) throw new EOFException();
-      read += result;
-    }
+  /** Decodes the expected input, with its line break. */
+  String expectedInput() {
+    return new String(expectedBytes, UTF_8);
+  }
+
+  /**
+   * Writes the case's output through chunk. Reusing one buffer for every case lets maskers
+   * cache whatever they derive from the input array.
+   */
+  void writeTo(OutputStream out, byte[] chunk) throws IOException {
+    writeTo(out, chunk, 0, outputBytes.length);
+  }
 
-    if (Arrays.equals(expectedInputBytes, buffer)) {
-      listener.testPassed(this);
-    } else {
-      listener.testFailed(this, new String(buffer, ASCII));
+  /** Writes len bytes of the case's output, starting at offset. */
+  void writeTo(OutputStream out, byte[] chunk, int offset, int len) throws IOException {
+    int end = offset + len;
+    for (int i = offset; i < end; i += chunk.length) {
+      int length = Math.min(chunk.length, end - i);
+      System.arraycopy(outputBytes, i, chunk, 0, length);
+      out.write(chunk, 0, length);
     }
   }
 
+  /** Copies len bytes of the expected input, starting at offset, into dst. */
+  void getExpectedInput(int offset, byte[] dst, int off, int len) {
+    System.arraycopy(expectedBytes, offset, dst, off, len);
+  }
+
   static class Builder {
 
     final String description;
@@ -95,6 +104,12 @@ class TestCase {
 
   interface Listener {
     void testPassed(TestCase test);
-    void testFailed(TestCase test, String actualInput);
+
+    /**
+     * Called when the output for test differs from what's expected. offset is in bytes.
+     * actualInput holds the input from the first differing byte on, cut off after
+     * {@link StreamingVerifier#SNIPPET_SIZE} bytes.
+     */
+    void testFailed(TestCase test, int offset, String actualInput);
   }
 }
@@ -16,22 +16,28 @@
 package com.squareup.luhnybin;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Test suite.
  *
  * @author Bob Lee (bob@squareup.com)
  */
-class TestSuite {
+class TestSuite implements Suite {
 
   private TestCase.Builder builder;
   private List<TestCase> testCases = new ArrayList<TestCase>();
   int count = 0;
 
+  /** Longest of the short writes made by {@link #writeTo(OutputStream, Random)}. */
+  private static final int MAX_SHORT_WRITE = 32;
+
+  /** Write buffer for writeTo(). */
+  private final byte[] chunk = new byte[StreamingVerifier.CHUNK_SIZE];
+
   Output test(String description) {
     if (builder != null) {
       if (builder.output == null) {
@@ -43,12 +49,96 @@ class TestSuite {
     return new Output();
   }
 
+  /** Writes the input for every test. Not thread safe. */
   void writeTo(OutputStream out) throws IOException {
-    for (TestCase testCase : testCases) testCase.writeTo(out);
+    writeTo(out, chunk);
+  }
+
+  public void writeTo(OutputStream out, byte[] chunk) throws IOException {
+    // Indexed to avoid allocating an iterator.
+    for (int i = 0; i < testCases.size(); i++) testCases.get(i).writeTo(out, chunk);
+  }
+
+  /**
+   * Writes the input for every test in pieces of random length that cut across cases, card #s
+   * and multi-byte characters, and flushes after some of them. Half the pieces are short, so
+   * masker state is carried between writes often. Not thread safe.
+   */
+  void writeTo(OutputStream out, Random random) throws IOException {
+    int caseIndex = 0;
+    int offset = 0;
+    while (caseIndex < testCases.size()) {
+      int length = 1 + random.nextInt(random.nextBoolean() ? MAX_SHORT_WRITE : chunk.length);
+      int count = 0;
+      while (count < length && caseIndex < testCases.size()) {
+        byte[] bytes = testCases.get(caseIndex).outputBytes;
+        int n = Math.min(length - count, bytes.length - offset);
+        System.arraycopy(bytes, offset, chunk, count, n);
+        count += n;
+        offset += n;
+        if (offset == bytes.length) {
+          caseIndex++;
+          offset = 0;
+        }
+      }
+      out.write(chunk, 0, count);
+      if (random.nextInt(4) == 0) out.flush();
+    }
+  }
+
+  /**
+   * Writes the input for every test, one test at a time, and flushes after each one. Tells
+   * latencies right before each test's final line feed goes out.
+   */
+  void writeTo(OutputStream out, LatencyRecorder latencies) throws IOException {
+    for (int i = 0; i < testCases.size(); i++) {
+      TestCase testCase = testCases.get(i);
+      int last = testCase.outputBytes.length - 1;
+      testCase.writeTo(out, chunk, 0, last);
+      latencies.sent(i);
+      testCase.writeTo(out, chunk, last, 1);
+      out.flush();
+    }
+  }
+
+  /** Returns a verifier that checks output for this suite and reports results to listener. */
+  StreamingVerifier verifier(final TestCase.Listener listener) {
+    return new StreamingVerifier(this, new StreamingVerifier.Listener() {
+      public void casePassed(long caseNumber) {
+        listener.testPassed(testCases.get((int) caseNumber));
+      }
+
+      public void caseFailed(long caseNumber, long offset, byte[] actual) {
+        listener.testFailed(testCases.get((int) caseNumber), (int) offset,
+            new String(actual, TestCase.UTF_8));
+      }
+    });
+  }
+
+  TestCase testCase(int index) {
+    return testCases.get(index);
+  }
+
+  public long caseCount() {
+    return testCases.size();
+  }
+
+  public long length() {
+    long length = 0;
+    for (TestCase testCase : testCases) length += testCase.expectedBytes.length;
+    return length;
+  }
+
+  public long caseLength(long caseNumber) {
+    return testCases.get((int) caseNumber).expectedBytes.length;
+  }
+
+  public String description(long caseNumber) {
+    return testCases.get((int) caseNumber).description;
   }
 
-  void check(InputStream in, TestCase.Listener listener) throws IOException {
-    for (TestCase testCase : testCases) testCase.check(in, listener);
+  public void getExpected(long caseNumber, long offset, byte[] dst, int off, int len) {
+    testCases.get((int) caseNumber).getExpectedInput((int) offset, dst, off, len);
   }
 
   class Output {
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs a suite through many concurrent connections to a {@link MaskDaemon}. Every connection is
+ * opened before any is written to, then all start at once. Reports aggregate throughput and the
+ * distribution of time per connection, so a daemon that serializes connections or slows down
+ * with thousands of them stands out.
+ */
+final class DaemonLoadTest {
+
+  private final Suite suite;
+  private final String socket;
+  private final int connections;
+  private final int iterations;
+
+  DaemonLoadTest(Suite suite, String socket, int connections, int iterations) {
+    this.suite = suite;
+    this.socket = socket;
+    this.connections = connections;
+    this.iterations = iterations;
+  }
+
+  /** Called by run.sh --daemon SOCKET. */
+  static void run(Suite suite, String socket, Integer connections, Integer iterations)
+      throws IOException {
+    new DaemonLoadTest(suite, socket, connections, iterations).run();
+  }
+
+  void run() throws IOException {
+    System.out.printf("Running %,d connection(s) x %,d iteration(s) of %,d bytes against the"
+        + " daemon at %s...%n", connections, iterations, suite.length(), socket);
+    System.out.println();
+
+    ExecutorService executor = MaskDaemon.newConnectionExecutor();
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(connections);
+    Connection[] all = new Connection[connections];
+    for (int i = 0; i < connections; i++) {
+      SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+      all[i] = new Connection(i + 1, channel, start, done);
+      all[i].start(executor);
+    }
+
+    long wallStart = System.nanoTime();
+    start.countDown();
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+    long wall = System.nanoTime() - wallStart;
+    executor.shutdown();
+    for (Connection connection : all) connection.channel.close();
+
+    long[] times = new long[connections];
+    for (int i = 0; i < connections; i++) times[i] = all[i].elapsed;
+    Arrays.sort(times);
+    double bytes = (double) suite.length() * iterations * connections;
+    double lines = (double) suite.caseCount() * iterations * connections;
+    System.out.printf("Connections:  %,d in %,dms%n", connections, wall / 1000000);
+    System.out.printf("Throughput:   %,.1f MB/s, %,.0f lines/s%n",
+        bytes / (1 << 20) / (wall / 1e9), lines / (wall / 1e9));
+    System.out.printf("Connection:   p50 %,.1fms, p99 %,.1fms, max %,.1fms%n",
+        Report.percentile(times, 50) / 1e6, Report.percentile(times, 99) / 1e6,
+        times[connections - 1] / 1e6);
+    System.out.println();
+  }
+
+  /** One connection with its writer and verifier. */
+  private class Connection {
+    final int number;
+    final SocketChannel channel;
+    final CountDownLatch start;
+    final CountDownLatch done;
+    volatile long elapsed;
+
+    Connection(int number, SocketChannel channel, CountDownLatch start, CountDownLatch done) {
+      this.number = number;
+      this.channel = channel;
+      this.start = start;
+      this.done = done;
+    }
+
+    void start(ExecutorService executor) {
+      executor.execute(new Runnable() {
+        public void run() {
+          write();
+        }
+      });
+      executor.execute(new Runnable() {
+        public void run() {
+          verify();
+        }
+      });
+    }
+
+    private void write() {
+      try {
+        byte[] chunk = new byte[StreamingVerifier.CHUNK_SIZE];
+        OutputStream out = outputStream(channel);
+        start.await();
+        for (int i = 0; i < iterations; i++) suite.writeTo(out, chunk);
+        channel.shutdownOutput();
+      } catch (IOException e) {
+        fail(e.toString());
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void verify() {
+      StreamingVerifier verifier = new StreamingVerifier(suite, new StreamingVerifier.Listener() {
+        public void casePassed(long caseNumber) {}
+
+        public void caseFailed(long caseNumber, long offset, byte[] actual) {
+          fail("Case #" + (caseNumber + 1) + " (" + suite.description(caseNumber) + ")"
+              + " failed at offset " + offset + ".");
+        }
+      });
+      try {
+        InputStream in = inputStream(channel);
+        start.await();
+        long connectionStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) verifier.readIteration(in);
+        elapsed = System.nanoTime() - connectionStart;
+        done.countDown();
+      } catch (EOFException e) {
+        fail("The daemon didn't send the expected amount of output.");
+      } catch (IOException e) {
+        fail(e.toString());
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void fail(String message) {
+      System.err.println("Error: connection #" + number + ": " + message);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Streams that read and write the channel directly. Channels.newInputStream() holds a lock on
+   * the channel while blocked in read(), which would stall a writer on another thread.
+   */
+  static InputStream inputStream(final SocketChannel channel) {
+    return new InputStream() {
+      @Override public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override public int read(byte[] b, int off, int len) throws IOException {
+        return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+      }
+    };
+  }
+
+  static OutputStream outputStream(final SocketChannel channel) {
+    return new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+        while (bytes.hasRemaining()) channel.write(bytes);
+      }
+    };
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Masks connections to a Unix domain socket from one long-lived JVM, so short jobs don't pay for
+ * JVM startup and warmup. Each connection is masked like standard input by mask.sh: it gets its
+ * own {@link LuhnMasker}, masked output is flushed whenever the masker has caught up with the
+ * input, and the daemon shuts down its side once the client's side ends.
+ *
+ * <p>Connections run on virtual threads when the JVM has them (Java 21), and on a cached pool of
+ * platform threads otherwise. Each connection holds about 20 KB of buffers.
+ */
+final class MaskDaemon implements Closeable {
+
+  /** Pending connections the kernel queues while the daemon catches up with accept(). */
+  private static final int BACKLOG = 4096;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Path path;
+  private final CardRules rules;
+  private final ServerSocketChannel server;
+  private final ExecutorService executor;
+  private MaskerStats stats;
+
+  /** Listens on the socket at path, replacing any stale socket file. */
+  MaskDaemon(Path path) throws IOException {
+    this(path, CardRules.DEFAULT);
+  }
+
+  MaskDaemon(Path path, CardRules rules) throws IOException {
+    this.path = path;
+    this.rules = rules;
+    Files.deleteIfExists(path);
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(path), BACKLOG);
+    executor = newConnectionExecutor();
+  }
+
+  /** Adds every connection's engine counts to stats. */
+  void recordStatsTo(MaskerStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Called by mask.sh --daemon SOCKET. Serves until the process is killed.
+   *
+   * @param stats null unless mask.sh was given --stats
+   */
+  static void run(String socket, CardRules rules, MaskerStats stats) throws IOException {
+    final MaskDaemon daemon = new MaskDaemon(Paths.get(socket), rules);
+    daemon.recordStatsTo(stats);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override public void run() {
+        daemon.close();
+      }
+    });
+    System.err.println("Masking connections to " + socket + ".");
+    daemon.serve();
+  }
+
+  /** Accepts connections until the daemon is closed. */
+  void serve() throws IOException {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (ClosedChannelException e) {
+        return;
+      }
+      executor.execute(new Connection(channel, rules, stats));
+    }
+  }
+
+  /** Stops accepting connections and removes the socket file. Open connections finish. */
+  @Override public void close() {
+    try {
+      server.close();
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      System.err.println("Error: " + e);
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Returns an executor that starts a virtual thread per task if this JVM supports them, or a
+   * cached pool of daemon threads.
+   */
+  static ExecutorService newConnectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (NoSuchMethodException e) {
+      // Java 17 through 18.
+    } catch (InvocationTargetException e) {
+      // Java 19 and 20 without --enable-preview.
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "mask-connection");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  private static class Connection implements Runnable {
+    private final SocketChannel channel;
+    private final CardRules rules;
+    private final MaskerStats stats;
+
+    Connection(SocketChannel channel, CardRules rules, MaskerStats stats) {
+      this.channel = channel;
+      this.rules = rules;
+      this.stats = stats;
+    }
+
+    public void run() {
+      try {
+        LuhnMasker masker = new LuhnMasker(Channels.newOutputStream(channel), rules);
+        masker.recordStatsTo(stats);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+          masker.write(buffer.array(), 0, buffer.position());
+          buffer.clear();
+
+          // A read returns what's available, so the next one would block.
+          masker.flush();
+        }
+        masker.finish();
+        channel.shutdownOutput();
+      } catch (IOException e) {
+        // The client went away.
+      } finally {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}
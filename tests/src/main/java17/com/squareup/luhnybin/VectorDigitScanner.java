@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scans a full vector of bytes per step, 32 with AVX2 and 64 with AVX-512. Only compiled on JDK
+ * 17 and later (see the {@code jdk17} profile in pom.xml), and only loaded when the JVM runs
+ * with {@code --add-modules jdk.incubator.vector}.
+ */
+final class VectorDigitScanner extends DigitScanner {
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  private final DigitScanner tail = new DigitScanner.Swar();
+
+  @Override int nextDigit(ByteBuffer buffer, int from, int to) {
+    if (buffer.hasArray()) {
+      return nextDigit(buffer.array(), buffer.arrayOffset(), buffer, from, to);
+    }
+    int i = from;
+    for (int bound = to - SPECIES.length(); i <= bound; i += SPECIES.length()) {
+      VectorMask<Byte> digits = digits(
+          ByteVector.fromByteBuffer(SPECIES, buffer, i, ByteOrder.nativeOrder()));
+      if (digits.anyTrue()) return i + digits.firstTrue();
+    }
+    return tail.nextDigit(buffer, i, to);
+  }
+
+  /** Loading straight from the array is faster than going through a heap buffer. */
+  private int nextDigit(byte[] b, int offset, ByteBuffer buffer, int from, int to) {
+    int i = from;
+    for (int bound = to - SPECIES.length(); i <= bound; i += SPECIES.length()) {
+      VectorMask<Byte> digits = digits(ByteVector.fromArray(SPECIES, b, offset + i));
+      if (digits.anyTrue()) return i + digits.firstTrue();
+    }
+    return tail.nextDigit(buffer, i, to);
+  }
+
+  private static VectorMask<Byte> digits(ByteVector bytes) {
+    return bytes.compare(VectorOperators.GE, (byte) '0')
+        .and(bytes.compare(VectorOperators.LE, (byte) '9'));
+  }
+
+  @Override String name() {
+    return "vector";
+  }
+}
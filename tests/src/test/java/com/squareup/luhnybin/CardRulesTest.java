@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import com.google.common.io.Files;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CardRulesTest {
+
+  static final CardRules WIDE = new CardRules(12, 19, " -./", '#', "");
+  static final CardRules ISSUERS = new CardRules(13, 19, "/", '*', "4,51-55,2221-2720");
+  static final CardRules SHORT = new CardRules(8, 10, "", 'X', "");
+
+  @Test public void compilesTables() {
+    Assert.assertTrue(WIDE.endsRun((byte) 'x'));
+    Assert.assertFalse(WIDE.endsRun((byte) '.'));
+    Assert.assertTrue(ISSUERS.endsRun((byte) '-'));
+    Assert.assertTrue(SHORT.endsRun((byte) ' '));
+    Assert.assertNull(WIDE.allowedStarts);
+
+    Assert.assertEquals(4, ISSUERS.prefixDepth);
+    Assert.assertTrue(ISSUERS.allowsStart("4000"));
+    Assert.assertTrue(ISSUERS.allowsStart("5599"));
+    Assert.assertTrue(ISSUERS.allowsStart("2221"));
+    Assert.assertTrue(ISSUERS.allowsStart("2720"));
+    Assert.assertFalse(ISSUERS.allowsStart("5600"));
+    Assert.assertFalse(ISSUERS.allowsStart("2721"));
+    Assert.assertFalse(ISSUERS.allowsStart("3400"));
+  }
+
+  @Test public void rejectsInvalidRules() {
+    assertInvalid(7, 16, " -", 'X', "");
+    assertInvalid(14, 32, " -", 'X', "");
+    assertInvalid(16, 14, " -", 'X', "");
+    assertInvalid(14, 16, " -", '0', "");
+    assertInvalid(14, 16, " 5", 'X', "");
+    assertInvalid(14, 16, " \n", 'X', "");
+    assertInvalid(8, 16, " -", 'X', "12345678");
+    assertInvalid(14, 16, " -", 'X', "55-51");
+    assertInvalid(14, 16, " -", 'X', "5-55");
+    assertInvalid(14, 16, " -", 'X', "4x");
+  }
+
+  private static void assertInvalid(int min, int max, String separators, char mask,
+      String prefixes) {
+    try {
+      new CardRules(min, max, separators, mask, prefixes);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void readsProperties() throws IOException {
+    File file = File.createTempFile("rules", ".properties");
+    try {
+      Files.write("lengths=12-19\nseparators=\\ -./\nmask=#\n"
+          + "prefixes=4, 51-55\n", file, TestCase.UTF_8);
+      CardRules rules = CardRules.read(file);
+      Assert.assertEquals(12, rules.minLength);
+      Assert.assertEquals(19, rules.maxLength);
+      Assert.assertEquals(" -./", rules.separators);
+      Assert.assertEquals('#', rules.mask);
+      Assert.assertEquals("4,51-55", rules.prefixes);
+
+      Files.write("", file, TestCase.UTF_8);
+      Assert.assertEquals(CardRules.DEFAULT.toString(), CardRules.read(file).toString());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void suitePassesForEveryRuleSet() throws IOException {
+    for (CardRules rules : new CardRules[] { CardRules.DEFAULT, WIDE, ISSUERS, SHORT }) {
+      LuhnyBinTests tests = new LuhnyBinTests(rules);
+      ByteArrayOutputStream input = new ByteArrayOutputStream();
+      tests.writeTo(input);
+
+      final List<String> failures = new ArrayList<String>();
+      StreamingVerifier verifier = tests.verifier(new TestCase.Listener() {
+        public void testPassed(TestCase test) {}
+
+        public void testFailed(TestCase test, int offset, String actualInput) {
+          failures.add(test.description + " at " + offset + ": " + actualInput);
+        }
+      });
+      LuhnMasker masker = new LuhnMasker(verifier, rules);
+      byte[] bytes = input.toByteArray();
+      masker.write(bytes, 0, bytes.length);
+      masker.finish();
+      Assert.assertEquals(rules.toString(), new ArrayList<String>(), failures);
+      Assert.assertEquals(rules.toString(), 1, verifier.iterations());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CorpusTest {
+
+  @Test public void generatedCorpusMatchesMasker() throws IOException {
+    File file = File.createTempFile("corpus", ".bin");
+    try {
+      CorpusWriter writer = new CorpusWriter(file);
+      CorpusGenerator generator = new CorpusGenerator(writer, new Random(42), 2000);
+      for (int i = 0; i < 500; i++) generator.writeCase();
+      writer.close();
+
+      Corpus corpus = Corpus.open(file);
+      try {
+        Assert.assertEquals(500, corpus.caseCount);
+
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        corpus.writeTo(input, new byte[1024]);
+        ByteArrayOutputStream masked = new ByteArrayOutputStream();
+        LuhnMasker masker = new LuhnMasker(masked);
+        masker.write(input.toByteArray(), 0, input.size());
+        masker.finish();
+
+        RecordingListener passing = new RecordingListener();
+        StreamingVerifier verifier = new StreamingVerifier(corpus, passing);
+        verifier.write(masked.toByteArray());
+        Assert.assertEquals(1, verifier.iterations());
+        Assert.assertEquals(500, passing.passed);
+        Assert.assertEquals(-1, passing.failedCase);
+
+        // The input itself only matches where nothing was masked.
+        RecordingListener failing = new RecordingListener();
+        verifier = new StreamingVerifier(corpus, failing);
+        verifier.readIteration(new ByteArrayInputStream(input.toByteArray()));
+        Assert.assertTrue(verifier.failed());
+        Assert.assertEquals(failing.passed, failing.failedCase);
+        Assert.assertFalse(corpus.description(failing.failedCase).equals("log line"));
+        long offset = corpus.caseStart(failing.failedCase) + failing.failedOffset;
+        Assert.assertEquals(failing.failedCase, corpus.caseAt(offset));
+      } finally {
+        corpus.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void generatedCorpusMatchesMaskerWithOtherRules() throws IOException {
+    CardRules longest = new CardRules(CardRules.LONGEST, CardRules.LONGEST, "/", '#', "");
+    CardRules[] rules = { CardRulesTest.WIDE, CardRulesTest.ISSUERS, longest };
+    for (int i = 0; i < rules.length; i++) {
+      File file = File.createTempFile("corpus", ".bin");
+      try {
+        CorpusWriter writer = new CorpusWriter(file);
+        CorpusGenerator generator = new CorpusGenerator(writer, new Random(i), 2000, rules[i]);
+        for (int j = 0; j < 300; j++) generator.writeCase();
+        writer.close();
+
+        Corpus corpus = Corpus.open(file);
+        try {
+          ByteArrayOutputStream input = new ByteArrayOutputStream();
+          corpus.writeTo(input, new byte[1024]);
+          ByteArrayOutputStream masked = new ByteArrayOutputStream();
+          LuhnMasker masker = new LuhnMasker(masked, rules[i]);
+          masker.write(input.toByteArray(), 0, input.size());
+          masker.finish();
+
+          RecordingListener listener = new RecordingListener();
+          new StreamingVerifier(corpus, listener).write(masked.toByteArray());
+          Assert.assertEquals(rules[i] + ": case " + listener.failedCase + " at "
+              + listener.failedOffset, -1, listener.failedCase);
+          Assert.assertEquals(300, listener.passed);
+        } finally {
+          corpus.close();
+        }
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  static class RecordingListener implements StreamingVerifier.Listener {
+    long passed;
+    long failedCase = -1;
+    long failedOffset = -1;
+
+    public void casePassed(long caseNumber) {
+      passed++;
+    }
+
+    public void caseFailed(long caseNumber, long offset, byte[] actual) {
+      failedCase = caseNumber;
+      failedOffset = offset;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DigitScannerTest {
+
+  @Test public void swar() {
+    check(new DigitScanner.Swar());
+  }
+
+  /** The Vector API scanner when this JVM has it, otherwise SWAR again. */
+  @Test public void instance() {
+    check(DigitScanner.INSTANCE);
+  }
+
+  @Test public void digitFlagsAllBytes() {
+    for (int c = 0; c < 256; c++) {
+      long flags = DigitScanner.Swar.digitFlags(c & 0xffL | 0x4141414141414100L);
+      Assert.assertEquals(String.valueOf(c), DigitScanner.isDigit((byte) c), flags != 0);
+    }
+  }
+
+  private void check(DigitScanner scanner) {
+    DigitScanner scalar = new DigitScanner.Scalar();
+    Random random = new Random(3);
+    // Bytes next to the digit range and with the high bit set catch off-by-one classification.
+    byte[] alphabet = { '/', ':', ' ', '-', 'a', '\n', (byte) 0xb0, (byte) 0xb9, (byte) 0xff, 0 };
+    for (int trial = 0; trial < 2000; trial++) {
+      byte[] b = new byte[random.nextInt(300)];
+      for (int i = 0; i < b.length; i++) b[i] = alphabet[random.nextInt(alphabet.length)];
+      if (b.length > 0 && random.nextBoolean()) b[random.nextInt(b.length)] = (byte) '7';
+      if (b.length > 0 && random.nextBoolean()) b[random.nextInt(b.length)] = (byte) '0';
+      int from = b.length == 0 ? 0 : random.nextInt(b.length);
+      int to = from + random.nextInt(b.length - from + 1);
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+      direct.put(b);
+      ByteBuffer heap = ByteBuffer.wrap(b);
+      int expected = scalar.nextDigit(heap, from, to);
+      String name = scanner.name();
+      Assert.assertEquals(name, expected, scanner.nextDigit(heap, from, to));
+      heap.order(ByteOrder.LITTLE_ENDIAN);
+      Assert.assertEquals(name, expected, scanner.nextDigit(heap, from, to));
+      Assert.assertEquals(name, expected, scanner.nextDigit(direct, from, to));
+    }
+  }
+}
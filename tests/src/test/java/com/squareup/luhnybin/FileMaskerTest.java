@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileMaskerTest {
+
+  @Test public void copyMatchesMasker() throws IOException {
+    byte[] input = input();
+    File in = write(input);
+    File out = File.createTempFile("masked", ".txt");
+    try {
+      // Small segments put digit runs and digit-free spans across mappings.
+      new FileMasker(4096).mask(in, out);
+      Assert.assertArrayEquals(mask(input), read(out));
+    } finally {
+      in.delete();
+      out.delete();
+    }
+  }
+
+  @Test public void inPlaceMatchesMasker() throws IOException {
+    byte[] input = input();
+    File file = write(input);
+    try {
+      new FileMasker(4096).mask(file);
+      Assert.assertArrayEquals(mask(input), read(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void outputNamingInputMasksInPlace() throws IOException {
+    byte[] input = input();
+    File file = write(input);
+    File link = new File(file.getPath() + ".link");
+    try {
+      new FileMasker(4096).mask(file, file);
+      Assert.assertArrayEquals(mask(input), read(file));
+
+      write(file, input);
+      Files.createSymbolicLink(link.toPath(), file.toPath());
+      new FileMasker(4096).mask(file, link);
+      Assert.assertArrayEquals(mask(input), read(file));
+    } finally {
+      link.delete();
+      file.delete();
+    }
+  }
+
+  @Test public void emptyFile() throws IOException {
+    File file = write(new byte[0]);
+    try {
+      new FileMasker().mask(file);
+      Assert.assertEquals(0, file.length());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** Card #s and long runs between digit-free spans long enough to be transferred. */
+  private static byte[] input() throws IOException {
+    Random random = new Random(7);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      char[] text = new char[random.nextInt(3 * FileMasker.MIN_TRANSFER)];
+      Arrays.fill(text, i % 2 == 0 ? 'a' : ' ');
+      builder.append(text).append('\n')
+          .append(LuhnyBinTests.formattedNumber(' '))
+          .append(" and ")
+          .append(LuhnyBinTests.overlappingSequence(random.nextInt(10000)));
+      if (i % 3 == 0) builder.append('\n');
+    }
+    builder.append(LuhnyBinTests.randomNumber(16));
+    return builder.toString().getBytes("US-ASCII");
+  }
+
+  private static byte[] mask(byte[] input) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out);
+    masker.write(input, 0, input.length);
+    masker.finish();
+    return out.toByteArray();
+  }
+
+  private static File write(byte[] bytes) throws IOException {
+    File file = File.createTempFile("input", ".txt");
+    write(file, bytes);
+    return file;
+  }
+
+  private static void write(File file, byte[] bytes) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+  }
+
+  private static byte[] read(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    byte[] bytes = new byte[(int) in.length()];
+    in.readFully(bytes);
+    in.close();
+    return bytes;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FuzzerTest {
+
+  @Test public void streamingMaskerAgreesWithReference() {
+    Fuzzer fuzzer = new Fuzzer(new StreamingMasker(), CardRules.DEFAULT, new LuhnyBinTests());
+    Fuzzer.Failure failure = fuzzer.run(2, 1, TimeUnit.MILLISECONDS.toNanos(500));
+    Assert.assertNull(failure == null ? null : Fuzzer.escape(failure.input), failure);
+    Assert.assertTrue(fuzzer.inputs() > 0);
+  }
+
+  @Test public void shrinksWriteBoundaryBug() {
+    // Forgets card #s that straddle writes.
+    Masker broken = new Masker() {
+      public OutputStream open(final OutputStream out) {
+        return new OutputStream() {
+          @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+          }
+
+          @Override public void write(byte[] b, int off, int len) throws IOException {
+            LuhnMasker masker = new LuhnMasker(out);
+            masker.write(b, off, len);
+            masker.finish();
+          }
+        };
+      }
+    };
+    Fuzzer fuzzer = new Fuzzer(broken, CardRules.DEFAULT, new LuhnyBinTests());
+    Fuzzer.Failure failure = fuzzer.run(1, 1, TimeUnit.SECONDS.toNanos(10));
+    Assert.assertNotNull(failure);
+    Assert.assertTrue(Fuzzer.escape(failure.input), failure.input.length <= 16);
+    Assert.assertTrue(failure.writes.length > 1);
+    Assert.assertFalse(new String(failure.expected, TestCase.UTF_8).equals(
+        new String(failure.actual, TestCase.UTF_8)));
+  }
+
+  @Test public void escapes() {
+    Assert.assertEquals("\"a\\\"\\\\\\n\\xc3\\xa9\"",
+        Fuzzer.escape("a\"\\\n\u00e9".getBytes(TestCase.UTF_8)));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HoldbackCheckTest {
+
+  @Test public void streamingMaskerPasses() throws IOException {
+    HoldbackCheck check =
+        new HoldbackCheck(new StreamingMasker(), CardRules.DEFAULT, new LuhnyBinTests());
+    Assert.assertNull(check.run());
+    Assert.assertTrue(check.maxHeld() > 0);
+  }
+
+  @Test public void everyFlushPolicyPasses() throws IOException {
+    for (FlushPolicy policy : FlushPolicy.values()) {
+      HoldbackCheck check =
+          new HoldbackCheck(masker(policy), CardRules.DEFAULT, new LuhnyBinTests());
+      Assert.assertNull(policy.toString(), check.run());
+    }
+  }
+
+  @Test public void lowLatencyPassesWithoutFlushes() throws IOException {
+    HoldbackCheck check = new HoldbackCheck(masker(FlushPolicy.LOW_LATENCY), CardRules.DEFAULT,
+        new LuhnyBinTests(), false);
+    Assert.assertNull(check.run());
+  }
+
+  @Test public void adaptiveHoldsBackWithoutFlushes() throws IOException {
+    HoldbackCheck check = new HoldbackCheck(masker(FlushPolicy.ADAPTIVE), CardRules.DEFAULT,
+        new LuhnyBinTests(), false);
+    Assert.assertNotNull(check.run());
+  }
+
+  @Test public void failsMaskerThatHoldsLines() throws IOException {
+    // Only writes out when its buffer fills.
+    Masker lazy = new Masker() {
+      public OutputStream open(OutputStream out) {
+        return new BufferedOutputStream(new StreamingMasker().open(out)) {
+          @Override public void flush() {}
+        };
+      }
+    };
+    String problem = new HoldbackCheck(lazy, CardRules.DEFAULT, new LuhnyBinTests()).run();
+    Assert.assertNotNull(problem);
+    Assert.assertTrue(problem, problem.contains("held back"));
+  }
+
+  @Test public void failsMaskerThatDoesNotMask() throws IOException {
+    Masker identity = new Masker() {
+      public OutputStream open(OutputStream out) {
+        return out;
+      }
+    };
+    String problem = new HoldbackCheck(identity, CardRules.DEFAULT, new LuhnyBinTests()).run();
+    Assert.assertNotNull(problem);
+    Assert.assertTrue(problem, problem.contains("expected 'X'"));
+  }
+
+  /** Masks with the built-in engine under the given policy. */
+  private static Masker masker(final FlushPolicy policy) {
+    return new Masker() {
+      public OutputStream open(OutputStream out) {
+        return new MaskingOutputStream(out, CardRules.DEFAULT, policy) {
+          @Override public void close() throws IOException {
+            finish();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test public void bucketsAreContiguous() {
+    for (int i = 1; i <= LatencyHistogram.index(Long.MAX_VALUE); i++) {
+      long lowest = LatencyHistogram.highestValue(i - 1) + 1;
+      Assert.assertEquals(i, LatencyHistogram.index(lowest));
+      Assert.assertEquals(i, LatencyHistogram.index(LatencyHistogram.highestValue(i)));
+    }
+  }
+
+  @Test public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+    Assert.assertEquals(1000, histogram.count());
+    Assert.assertEquals(1000000, histogram.max());
+    assertWithin(500000, histogram.percentile(50));
+    assertWithin(990000, histogram.percentile(99));
+    Assert.assertEquals(1000000, histogram.percentile(100));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(actual + " vs. " + expected,
+        actual >= expected && actual <= expected + expected / 64);
+  }
+}
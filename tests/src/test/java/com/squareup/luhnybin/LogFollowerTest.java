@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogFollowerTest {
+
+  private File directory;
+  private File log;
+  private File checkpoint;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("follow", "");
+    directory.delete();
+    directory.mkdir();
+    log = new File(directory, "app.log");
+    checkpoint = new File(directory, "checkpoint");
+  }
+
+  @After public void tearDown() {
+    for (File file : directory.listFiles()) file.delete();
+    directory.delete();
+  }
+
+  @Test public void followsAppendsAndRotation() throws Exception {
+    append(log, "first 4111 1111 ");
+    Following following = new Following(null);
+    following.await("first ");
+
+    append(log, "1111 1111\n");
+    following.await("first XXXX XXXX XXXX XXXX\n");
+
+    // Renamed away, with a last write to the old file. The digits don't join across files.
+    File rotated = new File(directory, "app.log.1");
+    Assert.assertTrue(log.renameTo(rotated));
+    append(log, "1111 1111\n");
+    append(rotated, "old 4111 1111 1111 ");
+    following.await("first XXXX XXXX XXXX XXXX\nold 4111 1111 1111 1111 1111\n");
+
+    // Truncated in place. Give the follower time to see the file shrink before it grows again.
+    new RandomAccessFile(log, "rw").setLength(0);
+    Thread.sleep(200);
+    append(log, "new 4111111111111111\n");
+    following.await("first XXXX XXXX XXXX XXXX\nold 4111 1111 1111 1111 1111\n"
+        + "new XXXXXXXXXXXXXXXX\n");
+    following.stop();
+  }
+
+  @Test public void resumesMidCardFromCheckpoint() throws Exception {
+    append(log, "before restart 4111 1111 1111");
+    Following first = new Following(checkpoint);
+    first.await("before restart ");
+    first.stop();
+    Assert.assertTrue(checkpoint.exists());
+
+    append(log, " 1111 after\n");
+    Following second = new Following(checkpoint);
+    // Nothing is read twice, and the card # split by the restart is masked.
+    second.await("XXXX XXXX XXXX XXXX after\n");
+    second.stop();
+  }
+
+  @Test public void startsOverIfCheckpointIsForAnotherFile() throws Exception {
+    append(log, "4111 1111");
+    Following first = new Following(checkpoint);
+    first.stop();
+
+    Assert.assertTrue(log.delete());
+    append(log, "new file\n");
+    Following second = new Following(checkpoint);
+    second.await("new file\n");
+    second.stop();
+  }
+
+  @Test public void stopsWhileWaitingForRotatedFile() throws Exception {
+    append(log, "old 4111 1111\n");
+    Following first = new Following(checkpoint);
+    first.await("old 4111 1111\n");
+
+    // Renamed away, and nothing takes its place.
+    Assert.assertTrue(log.renameTo(new File(directory, "app.log.1")));
+    Thread.sleep(100);
+    first.stop();
+
+    // The last checkpoint is for the old file, so the new one is read from its start.
+    append(log, "new 4111111111111111\n");
+    Following second = new Following(checkpoint);
+    second.await("new XXXXXXXXXXXXXXXX\n");
+    second.stop();
+  }
+
+  private static void append(File file, String s) throws IOException {
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(s.getBytes(TestCase.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Runs a follower on the log in the background. */
+  private class Following {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final LogFollower follower;
+    final Thread thread;
+    volatile Throwable failure;
+
+    Following(File checkpoint) {
+      follower = new LogFollower(log, checkpoint, CardRules.DEFAULT, out, 10, 10);
+      thread = new Thread() {
+        @Override public void run() {
+          try {
+            follower.follow();
+          } catch (Throwable t) {
+            failure = t;
+          }
+        }
+      };
+      thread.start();
+    }
+
+    /** Waits for the output to be expected. */
+    void await(String expected) throws Exception {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!out.toString("UTF-8").equals(expected)
+          && System.currentTimeMillis() < deadline && failure == null) {
+        Thread.sleep(5);
+      }
+      Assert.assertNull(failure);
+      Assert.assertEquals(expected, out.toString("UTF-8"));
+    }
+
+    void stop() throws Exception {
+      follower.stop();
+      thread.join(5000);
+      Assert.assertFalse("Still following.", thread.isAlive());
+      Assert.assertNull(failure);
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LuhnMaskerTest {
+
+  @Test public void masksValidNumbers() throws IOException {
+    Assert.assertEquals("XXXXXXXXXXXXXX", mask("56613959932537"));
+    Assert.assertEquals("XXXX XXXX XXXX XXXX", mask("4111 1111 1111 1111"));
+    Assert.assertEquals("XXXX-XXXX-XXXX-XXXX", mask("4111-1111-1111-1111"));
+    Assert.assertEquals("987XXXXXXXXXXXXXXXX321", mask("9875610591081018250321"));
+  }
+
+  @Test public void leavesOtherTextAlone() throws IOException {
+    Assert.assertEquals("LF only ->\n<- LF only", mask("LF only ->\n<- LF only"));
+    Assert.assertEquals("4111 1111 1111 111 doesn't have enough digits.",
+        mask("4111 1111 1111 111 doesn't have enough digits."));
+    Assert.assertEquals("56613959932535089 has too many digits.",
+        mask("56613959932535089 has too many digits."));
+  }
+
+  @Test public void lineFeedEndsNumber() throws IOException {
+    Assert.assertEquals("4111111\n111111111", mask("4111111\n111111111"));
+  }
+
+  @Test public void passesNonAsciiBytesThrough() throws IOException {
+    // Every byte from 0x80 up, including ones that aren't valid UTF-8, between card #s.
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    byte[] number = "4111 1111 1111 1111".getBytes("US-ASCII");
+    byte[] masked = "XXXX XXXX XXXX XXXX".getBytes("US-ASCII");
+    for (int b = 0x80; b <= 0xff; b++) {
+      input.write(number);
+      input.write(b);
+      expected.write(masked);
+      expected.write(b);
+    }
+    byte[] bytes = input.toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out);
+    masker.write(bytes, 0, bytes.length);
+    masker.finish();
+    Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+    // A multi-byte character between digit groups breaks the #.
+    Assert.assertEquals("4111\u00a01111 1111 1111", mask("4111\u00a01111 1111 1111"));
+  }
+
+  @Test public void publishesMatchEvents() throws IOException {
+    final List<String> events = new ArrayList<String>();
+    MatchEvents matches = new MatchEvents(16, "key".getBytes("UTF-8"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out);
+    masker.publishMatchesTo(matches);
+    byte[] bytes = "card 4111 1111 1111 1111, not 1234, and 5500-0000-0000-0004 00\n"
+        .getBytes("US-ASCII");
+    // Split so the first match spans two writes.
+    masker.write(bytes, 0, 12);
+    masker.write(bytes, 12, bytes.length - 12);
+    masker.finish();
+    matches.drain(new MatchEvents.Listener() {
+      public void match(long offset, int digits, String prefixHash) {
+        events.add(offset + " " + digits + " " + prefixHash);
+      }
+    });
+    Assert.assertEquals(Arrays.asList(
+        "5 16 " + matches.hash(411111),
+        "40 16 " + matches.hash(550000)), events);
+  }
+
+  @Test public void publishesEveryMatchingWindow() throws IOException {
+    final List<String> events = new ArrayList<String>();
+    MatchEvents matches = new MatchEvents(16, "key".getBytes("UTF-8"));
+    LuhnMasker masker = new LuhnMasker(new ByteArrayOutputStream());
+    masker.publishMatchesTo(matches);
+    // Back-to-back #s, with shorter windows inside and across them that pass too.
+    write(masker, "4111111111111111 5500000000000004");
+    masker.finish();
+    matches.drain(new MatchEvents.Listener() {
+      public void match(long offset, int digits, String prefixHash) {
+        events.add(offset + " " + digits + " " + prefixHash);
+      }
+    });
+    Assert.assertEquals(Arrays.asList(
+        "0 16 " + matches.hash(411111),
+        "7 14 " + matches.hash(111111),
+        "7 16 " + matches.hash(111111),
+        "13 15 " + matches.hash(111550),
+        "17 16 " + matches.hash(550000)), events);
+  }
+
+  @Test public void masksAcrossWrites() throws IOException {
+    String input = "card: 4111 1111 1111 1111.\n";
+    String expected = "card: XXXX XXXX XXXX XXXX.\n";
+    for (int split = 0; split <= input.length(); split++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      LuhnMasker masker = new LuhnMasker(out);
+      byte[] bytes = input.getBytes("US-ASCII");
+      masker.write(bytes, 0, split);
+      masker.write(bytes, split, bytes.length - split);
+      masker.finish();
+      Assert.assertEquals(expected, out.toString("US-ASCII"));
+    }
+  }
+
+  @Test public void lowLatencyWritesOutWithoutFlush() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out, CardRules.DEFAULT, FlushPolicy.LOW_LATENCY);
+    write(masker, "card: 4111 11");
+    Assert.assertEquals("card: ", out.toString("US-ASCII"));
+    // Masked digits needn't wait for the digits after them.
+    write(masker, "11 1111 1111");
+    Assert.assertEquals("card: XXXX XXXX XXXX XXXX", out.toString("US-ASCII"));
+    write(masker, " 2");
+    Assert.assertEquals("card: XXXX XXXX XXXX XXXX ", out.toString("US-ASCII"));
+    write(masker, ".\n");
+    Assert.assertEquals("card: XXXX XXXX XXXX XXXX 2.\n", out.toString("US-ASCII"));
+  }
+
+  @Test public void adaptiveWaitsForFlush() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out);
+    write(masker, "card: 4111 1111 1111 1111.\n");
+    Assert.assertEquals(0, out.size());
+    masker.flush();
+    Assert.assertEquals("card: XXXX XXXX XXXX XXXX.\n", out.toString("US-ASCII"));
+  }
+
+  @Test public void everyFlushPolicyMatchesBruteForce() throws IOException {
+    Random random = new Random(24);
+    char[] alphabet = "0123456789012345678901234567890123456789 -x\n".toCharArray();
+    for (FlushPolicy flush : FlushPolicy.values()) {
+      for (int trial = 0; trial < 1000; trial++) {
+        char[] input = new char[random.nextInt(80)];
+        for (int i = 0; i < input.length; i++) {
+          input[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        String s = new String(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LuhnMasker masker = new LuhnMasker(out, CardRules.DEFAULT, flush);
+        for (int i = 0; i < s.length(); i++) write(masker, s.substring(i, i + 1));
+        masker.finish();
+        Assert.assertEquals(flush + ": " + s, bruteForce(s, CardRules.DEFAULT),
+            out.toString("US-ASCII"));
+      }
+    }
+  }
+
+  @Test public void longSeparatorChainCutsRun() throws IOException {
+    char[] gap = new char[LuhnMasker.HOLDBACK_CAPACITY];
+    Arrays.fill(gap, '-');
+    String input = "4111111" + new String(gap) + "111111111";
+    Assert.assertEquals(input, mask(input));
+  }
+
+  @Test public void masksEveryDigitOfScalingPatterns() throws IOException {
+    for (ScalingTest.Pattern pattern : ScalingTest.Pattern.values()) {
+      String line = new String(pattern.line(20000, CardRules.DEFAULT), "US-ASCII");
+      Assert.assertEquals(pattern.description, line.replaceAll("[0-9]", "X"), mask(line));
+    }
+  }
+
+  @Test public void masksEveryDigitOfScalingPatternsWithOtherRules() throws IOException {
+    CardRules longest = new CardRules(CardRules.LONGEST, CardRules.LONGEST, "/", '#', "");
+    for (CardRules rules : new CardRules[] { CardRulesTest.WIDE, longest }) {
+      for (ScalingTest.Pattern pattern : ScalingTest.Pattern.values()) {
+        String line = new String(pattern.line(20000, rules), "US-ASCII");
+        Assert.assertEquals(rules + ": " + pattern.description,
+            line.replaceAll("[0-9]", String.valueOf((char) rules.mask)), mask(line, rules));
+      }
+    }
+  }
+
+  @Test public void matchesBruteForce() throws IOException {
+    Random random = new Random(11);
+    char[] alphabet = "0123456789012345678901234567890123456789 -x".toCharArray();
+    for (int trial = 0; trial < 2000; trial++) {
+      char[] input = new char[random.nextInt(80)];
+      for (int i = 0; i < input.length; i++) {
+        input[i] = alphabet[random.nextInt(alphabet.length)];
+      }
+      String s = new String(input);
+      Assert.assertEquals(s, bruteForce(s, CardRules.DEFAULT), mask(s));
+    }
+  }
+
+  @Test public void matchesBruteForceWithOtherRules() throws IOException {
+    Random random = new Random(19);
+    char[] alphabet = "01234567890123456789012345678901234567890123 -./x".toCharArray();
+    for (CardRules rules : new CardRules[] { CardRulesTest.WIDE, CardRulesTest.ISSUERS }) {
+      for (int trial = 0; trial < 2000; trial++) {
+        char[] input = new char[random.nextInt(100)];
+        for (int i = 0; i < input.length; i++) {
+          input[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        String s = new String(input);
+        Assert.assertEquals(s, bruteForce(s, rules), mask(s, rules));
+      }
+    }
+  }
+
+  private static String bruteForce(String s, CardRules rules) {
+    return new String(ReferenceMasker.mask(s.getBytes(TestCase.UTF_8), rules), TestCase.UTF_8);
+  }
+
+  private static void write(LuhnMasker masker, String s) throws IOException {
+    byte[] bytes = s.getBytes("US-ASCII");
+    masker.write(bytes, 0, bytes.length);
+  }
+
+  private static String mask(String s) throws IOException {
+    return mask(s, CardRules.DEFAULT);
+  }
+
+  private static String mask(String s, CardRules rules) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(out, rules);
+    byte[] bytes = s.getBytes("UTF-8");
+    masker.write(bytes, 0, bytes.length);
+    masker.finish();
+    return out.toString("UTF-8");
+  }
+}
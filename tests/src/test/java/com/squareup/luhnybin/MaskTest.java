@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaskTest {
+
+  @Test public void gzipInputIsFlushedBeforeItEnds() throws Exception {
+    final PipedInputStream source = new PipedInputStream(64 * 1024);
+    GZIPOutputStream gzip = new GZIPOutputStream(new PipedOutputStream(source), true);
+
+    // Counts down once a whole line has come out.
+    final ByteArrayOutputStream masked = new ByteArrayOutputStream();
+    final CountDownLatch line = new CountDownLatch(1);
+    final OutputStream out = new OutputStream() {
+      @Override public synchronized void write(int b) {
+        masked.write(b);
+        if (b == '\n') line.countDown();
+      }
+    };
+    Thread masker = new Thread() {
+      @Override public void run() {
+        try {
+          Mask.mask(new GZIPInputStream(source), source, new LuhnMasker(out),
+              FlushPolicy.ADAPTIVE);
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    masker.start();
+
+    gzip.write("4111 1111 1111 1111\n".getBytes("US-ASCII"));
+    gzip.flush();
+    Assert.assertTrue("No output before the end of input.", line.await(10, TimeUnit.SECONDS));
+    synchronized (out) {
+      Assert.assertEquals("XXXX XXXX XXXX XXXX\n", masked.toString("US-ASCII"));
+    }
+
+    gzip.close();
+    masker.join();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaskerStatsTest {
+
+  @Test public void countsEngineWork() throws IOException {
+    MaskerStats stats = new MaskerStats();
+    byte[] input = "4111 1111 1111 1111 and 12-3\n".getBytes(TestCase.UTF_8);
+    for (int i = 0; i < 2; i++) {
+      LuhnMasker masker = new LuhnMasker(new ByteArrayOutputStream(), CardRules.DEFAULT);
+      masker.recordStatsTo(stats);
+      masker.write(input, 0, input.length);
+      masker.finish();
+    }
+
+    Assert.assertEquals(2 * input.length, stats.getBytesScanned());
+    Assert.assertEquals(4, stats.getDigitRuns());
+    // Per run, windows can end at the 14th, 15th and 16th digits, with 1 + 2 + 3 checks.
+    Assert.assertEquals(6, stats.getCandidateWindows());
+    Assert.assertEquals(12, stats.getLuhnChecks());
+    Assert.assertEquals(2, stats.getMatches());
+    Assert.assertEquals(32, stats.getDigitsMasked());
+    Assert.assertEquals(19, stats.getMaxHoldback());
+  }
+
+  @Test public void exposedOverJmx() throws JMException {
+    MaskerStats stats = new MaskerStats();
+    stats.record(1024, 1, 2, 3, 4, 5, 6);
+    stats.register();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(MaskerStats.OBJECT_NAME);
+    try {
+      Assert.assertEquals(3L, server.getAttribute(name, "LuhnChecks"));
+      Assert.assertEquals(6L, server.getAttribute(name, "MaxHoldback"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test public void formatsRates() {
+    MaskerStats stats = new MaskerStats();
+    stats.record(0, 0, 0, 0, 0, 0, 31);
+    Assert.assertEquals("2.0 MB/s, 5 digit runs/s, 1.5 Luhn checks/KB, 1 matches/s,"
+        + " 8 digits masked/s, max holdback 31 bytes",
+        stats.line(new long[6], new long[] { 4 << 20, 10, 9, 6144, 2, 16 }, 2));
+  }
+}
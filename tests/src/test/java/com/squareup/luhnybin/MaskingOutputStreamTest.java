@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaskingOutputStreamTest {
+
+  @Test public void masksSuiteAcrossRandomWrites() throws IOException {
+    LuhnyBinTests tests = new LuhnyBinTests();
+    String expected = expected(tests);
+    for (FlushPolicy policy : FlushPolicy.values()) {
+      for (int seed = 0; seed < 20; seed++) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MaskingOutputStream masking = new MaskingOutputStream(out, CardRules.DEFAULT, policy);
+        tests.writeTo(masking, new Random(seed));
+        masking.flush();
+        Assert.assertEquals(policy + " seed " + seed, expected, out.toString("UTF-8"));
+      }
+    }
+  }
+
+  @Test public void finishLeavesStreamOpenAndCloseClosesIt() throws IOException {
+    final boolean[] closed = new boolean[1];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = new FilterOutputStream(bytes) {
+      @Override public void close() {
+        closed[0] = true;
+      }
+    };
+    MaskingOutputStream masking = new MaskingOutputStream(out);
+    masking.write("4111 1111 1111 1111".getBytes(TestCase.UTF_8));
+    masking.flush();
+    Assert.assertTrue(bytes.size() < 19);
+    masking.finish();
+    Assert.assertEquals("XXXX XXXX XXXX XXXX", bytes.toString("UTF-8"));
+    Assert.assertFalse(closed[0]);
+
+    // A new input: these digits don't continue the finished run.
+    masking.write("1111".getBytes(TestCase.UTF_8));
+    masking.close();
+    Assert.assertEquals("XXXX XXXX XXXX XXXX1111", bytes.toString("UTF-8"));
+    Assert.assertTrue(closed[0]);
+  }
+
+  @Test public void writesDoNotAllocate() throws IOException {
+    final LuhnyBinTests tests = new LuhnyBinTests();
+    OutputStream discard = new OutputStream() {
+      @Override public void write(int b) {}
+
+      @Override public void write(byte[] b, int off, int len) {}
+    };
+    final MaskingOutputStream masking = new MaskingOutputStream(discard);
+    final Random random = new Random(1);
+    final byte[] single = new byte[] { '4' };
+    assertStopsAllocating(new Writes() {
+      public void run() throws IOException {
+        tests.writeTo(masking, random);
+        masking.write(single);
+        masking.write('\n');
+      }
+    });
+  }
+
+  @Test public void writesFromFreshArraysDoNotAllocate() throws IOException {
+    OutputStream discard = new OutputStream() {
+      @Override public void write(int b) {}
+
+      @Override public void write(byte[] b, int off, int len) {}
+    };
+    final MaskingOutputStream masking = new MaskingOutputStream(discard);
+    // A record per array, as an appender that encodes each record anew would hand over. Sizes
+    // span the chunk size, and no array comes up again until 63 others have.
+    final byte[][] records = new byte[64][];
+    Random random = new Random(2);
+    for (int i = 0; i < records.length; i++) {
+      StringBuilder record = new StringBuilder("card ");
+      record.append(LuhnyBinTests.formattedNumber(' ')).append(' ');
+      while (record.length() < random.nextInt(3 * MaskingOutputStream.CHUNK_SIZE)) {
+        record.append("text and 12-34 ");
+      }
+      records[i] = record.append('\n').toString().getBytes(TestCase.UTF_8);
+    }
+    assertStopsAllocating(new Writes() {
+      public void run() throws IOException {
+        for (byte[] record : records) masking.write(record, 0, record.length);
+      }
+    });
+  }
+
+  static String expected(TestSuite tests) {
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < tests.caseCount(); i++) expected.append(tests.testCase(i).expectedInput());
+    return expected.toString();
+  }
+
+  interface Writes {
+    void run() throws IOException;
+  }
+
+  /**
+   * Fails unless some round of ten runs allocates next to nothing. The vector digit scanner
+   * allocates until it's compiled, so early rounds don't count.
+   */
+  static void assertStopsAllocating(Writes writes) throws IOException {
+    com.sun.management.ThreadMXBean threads
+        = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocated = 0;
+    for (int round = 0; round < 200; round++) {
+      long before = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 10; i++) writes.run();
+      allocated = threads.getThreadAllocatedBytes(threadId) - before;
+      // Reading the counter allocates a little.
+      if (allocated < 1024) return;
+    }
+    Assert.fail("Allocated " + allocated + " bytes in the last round.");
+  }
+}
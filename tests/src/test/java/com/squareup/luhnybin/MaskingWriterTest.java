@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaskingWriterTest {
+
+  @Test public void masksSuiteAcrossRandomWrites() throws IOException {
+    LuhnyBinTests tests = new LuhnyBinTests();
+    String input = input(tests);
+    String expected = MaskingOutputStreamTest.expected(tests);
+    for (int seed = 0; seed < 20; seed++) {
+      StringWriter out = new StringWriter();
+      MaskingWriter masking = new MaskingWriter(out);
+      writeInPieces(masking, input, input.toCharArray(), new Random(seed));
+      masking.flush();
+      Assert.assertEquals("seed " + seed, expected, out.toString());
+    }
+  }
+
+  @Test public void keepsNonAsciiTextInPlace() throws IOException {
+    char[] accents = new char[100000];
+    Arrays.fill(accents, '\u00e9');
+    String filler = new String(accents);
+    String input = "\u4e2d 4111 1111 1111 1111 " + filler + " \ud83d\ude00 5500-0000-0000-0004\n";
+    StringWriter out = new StringWriter();
+    MaskingWriter masking = new MaskingWriter(out);
+    masking.write(input);
+    masking.close();
+    Assert.assertEquals(
+        "\u4e2d XXXX XXXX XXXX XXXX " + filler + " \ud83d\ude00 XXXX-XXXX-XXXX-XXXX\n",
+        out.toString());
+  }
+
+  @Test public void writesDoNotAllocate() throws IOException {
+    final String input = input(new LuhnyBinTests());
+    Writer discard = new Writer() {
+      @Override public void write(char[] cbuf, int off, int len) {}
+
+      @Override public void flush() {}
+
+      @Override public void close() {}
+    };
+    final MaskingWriter masking = new MaskingWriter(discard);
+    final Random random = new Random(1);
+    final char[] chars = input.toCharArray();
+    MaskingOutputStreamTest.assertStopsAllocating(new MaskingOutputStreamTest.Writes() {
+      public void run() throws IOException {
+        writeInPieces(masking, input, chars, random);
+      }
+    });
+  }
+
+  /** Writes s, also given as chars, in pieces of random length through every kind of write. */
+  private static void writeInPieces(Writer out, String s, char[] chars, Random random)
+      throws IOException {
+    int i = 0;
+    while (i < s.length()) {
+      int length = Math.min(s.length() - i, 1 + random.nextInt(random.nextBoolean() ? 32 : 4096));
+      switch (random.nextInt(5)) {
+        case 0:
+          out.write(chars, i, length);
+          break;
+        case 1:
+          out.write(s, i, length);
+          break;
+        case 2:
+          out.append(s, i, i + length);
+          break;
+        case 3:
+          out.write(chars[i]);
+          length = 1;
+          break;
+        default:
+          out.flush();
+          length = 0;
+      }
+      i += length;
+    }
+  }
+
+  private static String input(TestSuite tests) {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < tests.caseCount(); i++) input.append(tests.testCase(i).output());
+    return input.toString();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MatchEventsTest {
+
+  private static final byte[] KEY = "key".getBytes(TestCase.UTF_8);
+
+  @Test public void dropsAndCountsWhenFull() {
+    MatchEvents events = new MatchEvents(4, KEY);
+    for (int i = 0; i < 4; i++) Assert.assertTrue(events.publish(i, 16, 411111));
+    Assert.assertFalse(events.publish(4, 16, 411111));
+    Assert.assertFalse(events.publish(5, 16, 411111));
+    Assert.assertEquals(2, events.dropped());
+
+    final List<Long> offsets = new ArrayList<Long>();
+    MatchEvents.Listener listener = new MatchEvents.Listener() {
+      public void match(long offset, int digits, String prefixHash) {
+        offsets.add(offset);
+      }
+    };
+    Assert.assertEquals(4, events.drain(listener));
+    Assert.assertTrue(events.publish(6, 16, 411111));
+    Assert.assertEquals(1, events.drain(listener));
+    Assert.assertEquals("[0, 1, 2, 3, 6]", offsets.toString());
+  }
+
+  @Test public void concurrentProducersLoseNothingButDrops() throws Exception {
+    final int producers = 4;
+    final int perProducer = 100000;
+    final MatchEvents events = new MatchEvents(256, KEY);
+    final BitSet seen = new BitSet();
+    final int[] duplicates = new int[1];
+    events.start(new MatchEvents.Listener() {
+      public void match(long offset, int digits, String prefixHash) {
+        if (seen.get((int) offset)) duplicates[0]++;
+        seen.set((int) offset);
+      }
+    });
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final int[] published = new int[producers];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          for (int i = 0; i < perProducer; i++) {
+            if (events.publish(producer * perProducer + i, 16, 411111)) published[producer]++;
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) thread.join();
+    events.close();
+
+    int total = 0;
+    for (int count : published) total += count;
+    Assert.assertEquals(0, duplicates[0]);
+    Assert.assertEquals(total, seen.cardinality());
+    Assert.assertEquals(producers * perProducer, total + events.dropped());
+  }
+
+  @Test public void hashesSixDigitsWithLeadingZeros() {
+    MatchEvents events = new MatchEvents(1, KEY);
+    String hash = events.hash(1234);
+    Assert.assertEquals(64, hash.length());
+    Assert.assertEquals(hash, events.hash(1234));
+    Assert.assertFalse(hash.equals(events.hash(12340)));
+    Assert.assertFalse(hash.equals(new MatchEvents(1, new byte[] { 1 }).hash(1234)));
+  }
+}
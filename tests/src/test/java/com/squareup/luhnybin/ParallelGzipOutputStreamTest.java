@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+
+  @Test public void roundTrips() throws IOException {
+    Random random = new Random(21);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    for (int length : new int[] { 0, 1, 99, 100, 101, 1000, 100000 }) {
+      // Compressible text with some noise.
+      byte[] input = new byte[length];
+      for (int i = 0; i < length; i++) {
+        input[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt(256) : 'a' + i % 26);
+      }
+
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, pool, 100,
+          Deflater.DEFAULT_COMPRESSION);
+      // Mix single bytes and writes that straddle blocks.
+      for (int i = 0; i < length; ) {
+        if (random.nextBoolean()) {
+          out.write(input[i++]);
+        } else {
+          int count = Math.min(length - i, random.nextInt(250));
+          out.write(input, i, count);
+          i += count;
+        }
+        if (random.nextInt(10) == 0) out.flush();
+      }
+      out.finish();
+
+      byte[] bytes = compressed.toByteArray();
+      Assert.assertEquals(Math.max(1, (length + 99) / 100), members(bytes));
+      byte[] decompressed = ByteStreams.toByteArray(
+          new GZIPInputStream(new ByteArrayInputStream(bytes)));
+      Assert.assertTrue("length " + length, Arrays.equals(input, decompressed));
+    }
+    pool.shutdown();
+  }
+
+  /** Counts member headers, assuming the compressed data doesn't happen to contain one. */
+  private static int members(byte[] gzip) {
+    int count = 0;
+    for (int i = 0; i + 3 < gzip.length; i++) {
+      if (gzip[i] == 0x1f && gzip[i + 1] == (byte) 0x8b && gzip[i + 2] == 8
+          && gzip[i + 3] == 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelMaskerTest {
+
+  @Test public void matchesSequentialMasker() throws IOException {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      input.append("java.lang.FakeException: ")
+          .append(LuhnyBinTests.formattedNumber(i % 2 == 0 ? ' ' : '-'))
+          .append(" is a card #.\n")
+          .append(LuhnyBinTests.overlappingSequence(100 + i))
+          .append('\n')
+          .append(LuhnyBinTests.nonMatchingSequence(i))
+          .append(LuhnyBinTests.randomNumber(16))
+          .append(" - ")
+          .append(LuhnyBinTests.randomNumber(14))
+          .append('\n');
+    }
+    byte[] bytes = input.toString().getBytes("US-ASCII");
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    LuhnMasker masker = new LuhnMasker(expected);
+    masker.write(bytes, 0, bytes.length);
+    masker.finish();
+
+    // Small chunks put card #s and long runs across chunk boundaries.
+    ForkJoinPool pool = new ForkJoinPool(4);
+    for (int chunkSize : new int[] { 1, 7, 16, 61, 1024 }) {
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      new ParallelMasker(pool, chunkSize).mask(new ByteArrayInputStream(bytes), actual);
+      Assert.assertEquals("chunk size " + chunkSize, expected.toString("US-ASCII"),
+          actual.toString("US-ASCII"));
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReportTest {
+
+  @Test public void createMeasuresThroughputAndPercentiles() {
+    long[] times = new long[100];
+    for (int i = 0; i < times.length; i++) times[i] = 100 - i;
+    Report report = Report.create("mask.sh", 3, 1 << 20, 1000, times);
+    Assert.assertEquals(100, report.iterations);
+    Assert.assertEquals(50, report.p50Micros, 0);
+    Assert.assertEquals(99, report.p99Micros, 0);
+    // 100 MB in 5,050us.
+    Assert.assertEquals(100 / 5050e-6, report.megabytesPerSecond, 1e-6);
+    Assert.assertEquals(100000 / 5050e-6, report.linesPerSecond, 1e-3);
+  }
+
+  @Test public void jsonRoundTrip() throws IOException {
+    roundTrip(".json");
+  }
+
+  @Test public void csvRoundTrip() throws IOException {
+    roundTrip(".csv");
+  }
+
+  private void roundTrip(String suffix) throws IOException {
+    Report report = Report.create("latency", 1, 3394, 20, new long[] { 10, 20, 30 });
+    report.lineP99Micros = 12.5;
+    report.firstByteP99Micros = 90000;
+    File file = File.createTempFile("report", suffix);
+    try {
+      report.write(file);
+      Report read = Report.read(file);
+      Assert.assertEquals("latency", read.mode);
+      Assert.assertEquals(1, read.warmup);
+      Assert.assertEquals(3, read.iterations);
+      Assert.assertEquals(3394, read.bytes);
+      Assert.assertEquals(20, read.lines);
+      Assert.assertEquals(report.megabytesPerSecond, read.megabytesPerSecond, 0);
+      Assert.assertEquals(report.p99Micros, read.p99Micros, 0);
+      Assert.assertEquals(12.5, read.lineP99Micros, 0);
+      Assert.assertEquals(90000, read.firstByteP99Micros, 0);
+      Assert.assertTrue(report.regressions(read, 0).isEmpty());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test public void regressionsBeyondTolerance() {
+    Report baseline = Report.create("mask.sh", 0, 1 << 20, 10, new long[] { 1000, 1000 });
+    Report slower = Report.create("mask.sh", 0, 1 << 20, 10, new long[] { 1040, 1040 });
+    Assert.assertTrue(slower.regressions(baseline, 0.05).isEmpty());
+    Assert.assertEquals(2, slower.regressions(baseline, 0.03).size());
+
+    baseline.firstByteP99Micros = 90000;
+    slower.firstByteP99Micros = 100000;
+    Assert.assertEquals(3, slower.regressions(baseline, 0.03).size());
+
+    Report other = Report.create("corpus", 0, 1 << 20, 10, new long[] { 1000, 1000 });
+    Assert.assertEquals(1, other.regressions(baseline, 1).size());
+  }
+}
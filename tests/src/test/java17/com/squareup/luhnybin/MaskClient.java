@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Forwards input to a {@link MaskDaemon} and the masked result to output, the way
+ * {@code mask.sh --connect} does with socat.
+ */
+final class MaskClient {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private MaskClient() {}
+
+  /** Sends in to the daemon at socket on another thread, and copies what comes back to out. */
+  static void forward(Path socket, final InputStream in, OutputStream out) throws IOException {
+    final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    try {
+      Thread writer = new Thread("forward") {
+        @Override public void run() {
+          try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+              ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+              while (bytes.hasRemaining()) channel.write(bytes);
+            }
+            channel.shutdownOutput();
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+      };
+      writer.setDaemon(true);
+      writer.start();
+
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      while (channel.read(buffer) != -1) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+}
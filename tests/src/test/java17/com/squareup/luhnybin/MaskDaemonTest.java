@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the &quot;License&quot;);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.luhnybin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaskDaemonTest {
+
+  @Test public void masksConcurrentConnectionsIndependently() throws Exception {
+    Path directory = Files.createTempDirectory("luhnybin");
+    final Path socket = directory.resolve("mask.sock");
+    final MaskDaemon daemon = new MaskDaemon(socket);
+    Thread server = new Thread() {
+      @Override public void run() {
+        try {
+          daemon.serve();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    server.start();
+
+    ExecutorService executor = MaskDaemon.newConnectionExecutor();
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 200; i++) {
+        // Every connection ends mid-number, so state leaking between them would show.
+        final String input = "card " + i + ": 4111 1111 1111 1111\n4111 1111";
+        results.add(executor.submit(new Callable<String>() {
+          public String call() throws IOException {
+            return mask(socket, input);
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        Assert.assertEquals("card " + i + ": XXXX XXXX XXXX XXXX\n4111 1111",
+            results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+      daemon.close();
+      server.join();
+      Files.delete(directory);
+    }
+  }
+
+  private static String mask(Path socket, String input) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MaskClient.forward(socket, new ByteArrayInputStream(input.getBytes("US-ASCII")), out);
+    return out.toString("US-ASCII");
+  }
+}